@@ -0,0 +1,110 @@
+package lightbot.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+// LightBot está en el paquete por defecto y JMH no admite benchmarks en ese paquete,
+// así que se llama a través de MethodHandles. Al ser static final el JIT los trata como
+// constantes y la llamada queda en línea, sin el coste de la reflexión.
+final class LightBotApi {
+    private static final MethodHandle NEW_BOT;
+    private static final MethodHandle NEW_BOT_BACKEND;
+    private static final MethodHandle PARSE;
+    private static final MethodHandle COMPILE;
+    private static final MethodHandle RUN;
+    private static final MethodHandle RESET;
+    private static final MethodHandle GET_MAP;
+    private static final Class<? extends Enum> BACKEND;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> bot = Class.forName("LightBot");
+            Class<?> program = Class.forName("Program");
+            BACKEND = Class.forName("LightBot$Backend").asSubclass(Enum.class);
+            NEW_BOT = lookup.findConstructor(bot, MethodType.methodType(void.class, String.class))
+                    .asType(MethodType.methodType(Object.class, String.class));
+            NEW_BOT_BACKEND = lookup.findConstructor(bot, MethodType.methodType(void.class, String.class, BACKEND))
+                    .asType(MethodType.methodType(Object.class, String.class, Object.class));
+            PARSE = lookup.findStatic(program, "parse", MethodType.methodType(program, String[].class))
+                    .asType(MethodType.methodType(Object.class, String[].class));
+            COMPILE = lookup.findStatic(bot, "compile", MethodType.methodType(program, String[].class))
+                    .asType(MethodType.methodType(Object.class, String[].class));
+            RUN = lookup.findVirtual(bot, "run", MethodType.methodType(void.class, program))
+                    .asType(MethodType.methodType(void.class, Object.class, Object.class));
+            RESET = lookup.findVirtual(bot, "reset", MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(void.class, Object.class));
+            GET_MAP = lookup.findVirtual(bot, "getMap", MethodType.methodType(String[].class))
+                    .asType(MethodType.methodType(String[].class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private LightBotApi() { }
+
+    static Object newBot(String map) {
+        try {
+            return (Object) NEW_BOT.invokeExact(map);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Object newBot(String map, String backend) {
+        try {
+            return (Object) NEW_BOT_BACKEND.invokeExact(map, (Object) Enum.valueOf(BACKEND, backend));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    // Analiza sin pasar por la caché de programas
+    static Object parse(String[] program) {
+        try {
+            return (Object) PARSE.invokeExact(program);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object compile(String[] program) {
+        try {
+            return (Object) COMPILE.invokeExact(program);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void run(Object bot, Object program) {
+        try {
+            RUN.invokeExact(bot, program);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void reset(Object bot) {
+        try {
+            RESET.invokeExact(bot);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static String[] getMap(Object bot) {
+        try {
+            return (String[]) GET_MAP.invokeExact(bot);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) return (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+        return new IllegalStateException(t);
+    }
+}
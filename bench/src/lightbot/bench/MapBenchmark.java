@@ -0,0 +1,57 @@
+package lightbot.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// Construcción, reset() y getMap() para mapas de 8x4 a 4096x4096 con los dos almacenamientos
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MapBenchmark {
+    @Param({"8x4", "64x64", "512x512", "4096x4096"})
+    public String size;
+
+    @Param({"CHARS", "BITS"})
+    public String backend;
+
+    private String mapText;
+    private Object bot;
+    private Object lightRow;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        int[] wh = Workloads.size(size);
+        mapText = Workloads.stripedMap(wh[0], wh[1]);
+        bot = LightBotApi.newBot(mapText, backend);
+        // Enciende una fila entera para que reset() tenga trabajo
+        lightRow = LightBotApi.compile(new String[]{
+                "LEFT", "FORWARD", "RIGHT", "REPEAT " + wh[0], "LIGHT", "FORWARD", "ENDREPEAT"});
+    }
+
+    @Benchmark
+    public Object construct() {
+        return LightBotApi.newBot(mapText, backend);
+    }
+
+    @Benchmark
+    public Object reset() {
+        LightBotApi.reset(bot);
+        return bot;
+    }
+
+    @Benchmark
+    public Object lightRowAndReset() {
+        LightBotApi.run(bot, lightRow);
+        LightBotApi.reset(bot);
+        return bot;
+    }
+
+    @Benchmark
+    public String[] getMap() {
+        return LightBotApi.getMap(bot);
+    }
+}
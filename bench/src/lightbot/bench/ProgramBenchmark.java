@@ -0,0 +1,61 @@
+package lightbot.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// Análisis de programas y ejecución de programas con muchos REPEAT y de cadenas de CALL recursivas
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProgramBenchmark {
+    @Param({"1", "16", "128"})
+    public int scale;
+
+    private String[] generated;
+    private Object stripesBot;
+    private Object stripes;
+    private Object blocksBot;
+    private Object blocks;
+    private Object recursion;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        generated = Workloads.generated(10 * scale);
+        int width = 43 * scale, height = 14 * scale;
+        stripesBot = LightBotApi.newBot(Workloads.stripedMap(width, height));
+        stripes = LightBotApi.compile(Workloads.stripes(width, height));
+        blocksBot = LightBotApi.newBot(Workloads.stripedMap(8 * scale, 10 * scale));
+        blocks = LightBotApi.compile(Workloads.blocks(3 * scale, 4 * scale));
+        recursion = LightBotApi.compile(Workloads.recursion(1000 * scale));
+    }
+
+    @Benchmark
+    public Object parse() {
+        return LightBotApi.parse(generated);
+    }
+
+    @Benchmark
+    public Object runStripes() {
+        LightBotApi.reset(stripesBot);
+        LightBotApi.run(stripesBot, stripes);
+        return stripesBot;
+    }
+
+    @Benchmark
+    public Object runBlocks() {
+        LightBotApi.reset(blocksBot);
+        LightBotApi.run(blocksBot, blocks);
+        return blocksBot;
+    }
+
+    @Benchmark
+    public Object runRecursion() {
+        LightBotApi.reset(blocksBot);
+        LightBotApi.run(blocksBot, recursion);
+        return blocksBot;
+    }
+}
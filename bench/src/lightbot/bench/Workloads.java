@@ -0,0 +1,81 @@
+package lightbot.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Mapas y programas de los benchmarks, basados en los de LightBotTest pero a mayor escala
+final class Workloads {
+    private Workloads() { }
+
+    // "8x4" -> {8, 4}
+    static int[] size(String size) {
+        String[] parts = size.split("x");
+        return new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+    }
+
+    // Mapa vacío con el robot en la esquina y una fila de objetivos cada dos filas
+    static String stripedMap(int width, int height) {
+        StringBuilder sb = new StringBuilder((width + 1) * height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (y == 1 && x == 0) sb.append('R');
+                else sb.append(y % 2 == 0 ? 'O' : '.');
+            }
+            if (y < height - 1) sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    // Programa de test06: enciende todas las filas pares recorriendo el mapa en zigzag
+    static String[] stripes(int width, int height) {
+        return new String[]{
+                "LEFT", "FORWARD", "RIGHT",
+                "REPEAT " + height / 2,
+                    "REPEAT " + (width - 1), "LIGHT", "FORWARD", "ENDREPEAT",
+                    "LIGHT", "LEFT", "LEFT",
+                    "REPEAT " + (width - 1), "FORWARD", "ENDREPEAT",
+                    "LEFT", "FORWARD", "FORWARD", "LEFT",
+                "ENDREPEAT",
+        };
+    }
+
+    // Programa de test05 con los bloques de 3 cambiados por bloques de n
+    static String[] blocks(int n, int rows) {
+        return new String[]{
+                "LEFT",
+                "REPEAT " + rows,
+                    "FORWARD", "RIGHT",
+                    "REPEAT " + n, "LIGHT", "FORWARD", "ENDREPEAT",
+                    "RIGHT", "RIGHT",
+                    "REPEAT " + n, "FORWARD", "ENDREPEAT",
+                    "RIGHT", "FORWARD",
+                "ENDREPEAT",
+        };
+    }
+
+    // Cadena de llamadas recursivas de profundidad depth
+    static String[] recursion(int depth) {
+        return new String[]{
+                "FUNCTION DOWN(N)",
+                    "REPEAT N > 0", "FORWARD", "LIGHT", "CALL DOWN(N - 1)", "ENDREPEAT",
+                "ENDFUNCTION",
+                "CALL DOWN(" + depth + ")",
+        };
+    }
+
+    // Programa generado con muchas funciones, para medir el análisis
+    static String[] generated(int functions) {
+        List<String> lines = new ArrayList<>();
+        for (int f = 0; f < functions; f++) {
+            lines.add("FUNCTION F" + f + "(N, M)");
+            lines.add("REPEAT N * 2 + M");
+            lines.add("FORWARD");
+            lines.add("LIGHT");
+            lines.add(f + 1 < functions ? "CALL F" + (f + 1) + "(N - 1, M)" : "RIGHT");
+            lines.add("ENDREPEAT");
+            lines.add("ENDFUNCTION");
+        }
+        lines.add("CALL F0(3, 1)");
+        return lines.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,14 @@
+// Resultado de ejecutar un programa sobre un mapa en LightBot.runBatch
+public final class BatchResult {
+    private final int[] robotPosition;
+    private final String[] map;
+
+    BatchResult(int[] robotPosition, String[] map) {
+        this.robotPosition = robotPosition;
+        this.map = map;
+    }
+
+    public int[] getRobotPosition() { return robotPosition.clone(); }
+
+    public String[] getMap() { return map.clone(); }
+}
@@ -0,0 +1,48 @@
+// Operación binaria; op es uno de los códigos Bytecode.E_ADD ... Bytecode.E_NE
+class BinaryExpr extends Expr {
+    final int op;
+    final Expr left, right;
+    BinaryExpr(int op, Expr left, Expr right) {
+        this.op = op;
+        this.left = left;
+        this.right = right;
+    }
+
+    int eval(LightBot bot) { return apply(op, left.eval(bot), right.eval(bot)); }
+
+    Expr substitute(Expr[] locals) {
+        Expr l = left.substitute(locals), r = right.substitute(locals);
+        if (l instanceof ConstExpr && r instanceof ConstExpr
+                && !((op == Bytecode.E_DIV || op == Bytecode.E_MOD) && ((ConstExpr) r).value == 0))
+            return new ConstExpr(apply(op, ((ConstExpr) l).value, ((ConstExpr) r).value));
+        return new BinaryExpr(op, l, r);
+    }
+
+    void emitStack(BytecodeCompiler out) {
+        left.emitStack(out);
+        right.emitStack(out);
+        out.emitExprOp(op);
+    }
+
+    // Compartido con el intérprete de bytecode para que los dos motores den lo mismo
+    static int apply(int op, int a, int b) {
+        switch (op) {
+            case Bytecode.E_ADD: return a + b;
+            case Bytecode.E_SUB: return a - b;
+            case Bytecode.E_MUL: return a * b;
+            case Bytecode.E_DIV:
+                if (b == 0) throw new IllegalArgumentException("División por cero");
+                return a / b;
+            case Bytecode.E_MOD:
+                if (b == 0) throw new IllegalArgumentException("División por cero");
+                return a % b;
+            case Bytecode.E_LT: return a < b ? 1 : 0;
+            case Bytecode.E_LE: return a <= b ? 1 : 0;
+            case Bytecode.E_GT: return a > b ? 1 : 0;
+            case Bytecode.E_GE: return a >= b ? 1 : 0;
+            case Bytecode.E_EQ: return a == b ? 1 : 0;
+            case Bytecode.E_NE: return a != b ? 1 : 0;
+            default: throw new IllegalStateException("Operador desconocido: " + op);
+        }
+    }
+}
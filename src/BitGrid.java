@@ -0,0 +1,129 @@
+import java.util.*;
+
+// Mapa empaquetado en planos de bits (un bit por casilla en long[]).
+// Los planos del mapa inicial no cambian; solo el plano de encendidas se modifica
+// y las casillas encendidas se apuntan en LitLog para que reset() cueste O(casillas encendidas).
+class BitGrid implements Grid {
+    private final int width, height;
+    private final long[] walkable;
+    private final long[] target;       // 'O' o 'X' en el mapa inicial
+    private final long[] initialLit;   // 'x' o 'X' en el mapa inicial
+    private final long[] lit;
+    private final Map<Integer, Character> walls = new HashMap<>();  // paredes distintas de '#'
+    private final LitLog litLog = new LitLog();
+    private long remaining;
+
+    BitGrid(String[] lines, int width) {
+        this.width = width;
+        this.height = lines.length;
+        int words = (int) (((long) width * height + 63) >>> 6);
+        walkable = new long[words];
+        target = new long[words];
+        initialLit = new long[words];
+        lit = new long[words];
+        fill(lines);
+    }
+
+    private void fill(String[] lines) {
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                char c = lines[y].charAt(x);
+                switch (c) {
+                    case 'R': case 'L': case 'U': case 'D': case '.':
+                        set(walkable, i);
+                        break;
+                    case 'x':
+                        set(walkable, i);
+                        set(initialLit, i);
+                        break;
+                    case 'O':
+                        set(walkable, i);
+                        set(target, i);
+                        remaining++;
+                        break;
+                    case 'X':
+                        set(walkable, i);
+                        set(target, i);
+                        set(initialLit, i);
+                        break;
+                    default:
+                        if (c != '#') walls.put(i, c);
+                }
+            }
+        }
+        System.arraycopy(initialLit, 0, lit, 0, lit.length);
+    }
+
+    public boolean load(String[] lines) {
+        if (lines.length != height || lines[0].length() != width)
+            return false;
+        Arrays.fill(walkable, 0);
+        Arrays.fill(target, 0);
+        Arrays.fill(initialLit, 0);
+        walls.clear();
+        remaining = 0;
+        fill(lines);
+        litLog.clear();
+        return true;
+    }
+
+    private static void set(long[] bits, int i) { bits[i >>> 6] |= 1L << i; }
+    private static boolean get(long[] bits, int i) { return (bits[i >>> 6] & (1L << i)) != 0; }
+
+    public int width() { return width; }
+    public int height() { return height; }
+
+    public boolean isWalkable(int x, int y) { return get(walkable, y * width + x); }
+
+    public boolean light(int x, int y) {
+        int i = y * width + x;
+        if (get(lit, i) || !get(walkable, i))
+            return false;
+        set(lit, i);
+        if (get(target, i))
+            remaining--;
+        litLog.add(i);
+        return true;
+    }
+
+    public char cell(int x, int y) {
+        int i = y * width + x;
+        if (!get(walkable, i))
+            return walls.getOrDefault(i, '#');
+        if (get(lit, i))
+            return get(target, i) ? 'X' : 'x';
+        return get(target, i) ? 'O' : '.';
+    }
+
+    public void reset() { restoreLit(null); }
+
+    public String row(int y) {
+        char[] chars = new char[width];
+        for (int x = 0; x < width; x++)
+            chars[x] = cell(x, y);
+        return new String(chars);
+    }
+
+    public LitNode litHead() { return litLog.head(); }
+
+    public void restoreLit(LitNode head) { litLog.restore(head, this); }
+
+    public int litMark() { return litLog.mark(); }
+
+    public void undoLit(int mark) { litLog.undo(mark, this); }
+
+    public void setLit(long cell, boolean on) {
+        int i = (int) cell;
+        if (get(lit, i) == on)
+            return;
+        if (get(target, i))
+            remaining += on ? -1 : 1;
+        if (on)
+            set(lit, i);
+        else
+            lit[i >>> 6] &= ~(1L << i);
+    }
+
+    public long remainingTargets() { return remaining; }
+}
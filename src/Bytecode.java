@@ -0,0 +1,128 @@
+import java.util.*;
+
+// Programa compilado a un array plano de enteros.
+// Formato de cada instrucción (opcode seguido de sus operandos):
+//   FORWARD | LEFT | RIGHT | LIGHT
+//   LOOP  kind value endPc     evalúa el número de repeticiones, salta a endPc si es <= 0
+//   ENDLOOP bodyPc             decrementa el contador y vuelve a bodyPc mientras queden vueltas
+//   CALL  slot nargs (kind value)*nargs
+//   RET
+//   HALT
+//   BREAK                      punto de parada del depurador; solo aparece en las copias de withBreakpoints
+//   FORWARDS moves steps endPc tramo de FORWARD fusionado (ver ForwardRun): avanza moves casillas,
+//                              cuenta steps pasos y salta a endPc; si no puede, sigue con el código
+//                              original del tramo, que va justo detrás
+//   STEP                       paso de una llamada integrada por ProgramOptimizer, sin frame
+// Las expresiones son una constante (EXPR_CONST valor), un parámetro de la función actual
+// (EXPR_LOCAL posición), un nombre que se busca en los frames anteriores (EXPR_VAR símbolo)
+// o, si llevan operadores, código de pila en exprCode (EXPR_CODE inicio) terminado en E_END.
+final class Bytecode {
+    static final int FORWARD = 0;
+    static final int LEFT = 1;
+    static final int RIGHT = 2;
+    static final int LIGHT = 3;
+    static final int LOOP = 4;
+    static final int ENDLOOP = 5;
+    static final int CALL = 6;
+    static final int RET = 7;
+    static final int HALT = 8;
+    static final int BREAK = 9;
+    static final int FORWARDS = 10;
+    static final int STEP = 11;
+    static final String[] OPCODE_NAMES = {"FORWARD", "LEFT", "RIGHT", "LIGHT", "LOOP", "ENDLOOP", "CALL", "RET", "HALT", "BREAK", "FORWARDS", "STEP"};
+
+    static final int EXPR_CONST = 0;
+    static final int EXPR_VAR = 1;
+    static final int EXPR_LOCAL = 2;
+    static final int EXPR_CODE = 3;
+
+    // Código de pila de las expresiones
+    static final int E_END = 0;
+    static final int E_CONST = 1;   // E_CONST valor
+    static final int E_LOCAL = 2;   // E_LOCAL posición
+    static final int E_VAR = 3;     // E_VAR símbolo
+    static final int E_NEG = 4;
+    static final int E_ADD = 5;
+    static final int E_SUB = 6;
+    static final int E_MUL = 7;
+    static final int E_DIV = 8;
+    static final int E_MOD = 9;
+    static final int E_LT = 10;
+    static final int E_LE = 11;
+    static final int E_GT = 12;
+    static final int E_GE = 13;
+    static final int E_EQ = 14;
+    static final int E_NE = 15;
+
+    final int[] code;
+    final int[] exprCode;
+    final int maxExprDepth;     // altura máxima de la pila al evaluar exprCode
+    final int[] funcEntry;      // pc de inicio de cada función
+    final int[][] funcParams;   // símbolos de los parámetros de cada función
+    final String[] funcNames;
+    final String[] symbols;     // nombres de los símbolos, para los mensajes de error
+    final int[] lines;          // línea del programa de cada posición de code; -1 en RET y HALT
+    final boolean debug;        // copia con puntos de parada: el intérprete no salta vueltas de bucle
+
+    Bytecode(int[] code, int[] exprCode, int maxExprDepth, int[] funcEntry, int[][] funcParams,
+             String[] funcNames, String[] symbols, int[] lines, boolean debug) {
+        this.code = code;
+        this.exprCode = exprCode;
+        this.maxExprDepth = maxExprDepth;
+        this.funcEntry = funcEntry;
+        this.funcParams = funcParams;
+        this.funcNames = funcNames;
+        this.symbols = symbols;
+        this.lines = lines;
+        this.debug = debug;
+    }
+
+    // Copia del código con BREAK en lugar de las instrucciones que empiezan en pcs.
+    // Las posiciones no cambian, así que una ejecución puede pasar de una copia a otra.
+    Bytecode withBreakpoints(Collection<Integer> pcs) {
+        int[] patched = code.clone();
+        for (int pc : pcs)
+            patched[pc] = BREAK;
+        return new Bytecode(patched, exprCode, maxExprDepth, funcEntry, funcParams, funcNames, symbols, lines, true);
+    }
+
+    // Número de enteros que ocupa la instrucción que empieza en pc
+    int length(int pc) {
+        switch (code[pc]) {
+            case LOOP: return 4;
+            case FORWARDS: return 4;
+            case ENDLOOP: return 2;
+            case CALL: return 3 + 2 * code[pc + 2];
+            default: return 1;
+        }
+    }
+
+    // Posiciones de las instrucciones de una línea del programa
+    List<Integer> pcsAtLine(int line) {
+        List<Integer> pcs = new ArrayList<>();
+        for (int pc = 0; pc < code.length; pc += length(pc))
+            if (lines[pc] == line)
+                pcs.add(pc);
+        return pcs;
+    }
+
+    // Función a la que pertenece pc, o -1 si es del programa principal (que va antes que las funciones)
+    int functionAt(int pc) {
+        int best = -1;
+        for (int slot = 0; slot < funcEntry.length; slot++)
+            if (funcEntry[slot] <= pc && (best < 0 || funcEntry[slot] > funcEntry[best]))
+                best = slot;
+        return best;
+    }
+
+    // Opcode de una instrucción simple, o -1 si no es ninguna conocida
+    static int simpleOpcode(String cmd) {
+        switch (cmd) {
+            case "FORWARD": return FORWARD;
+            case "LEFT": return LEFT;
+            case "RIGHT": return RIGHT;
+            case "LIGHT": return LIGHT;
+            default: return -1;
+        }
+    }
+}
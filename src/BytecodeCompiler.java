@@ -0,0 +1,139 @@
+import java.util.*;
+
+// Traduce el árbol de instrucciones a Bytecode
+class BytecodeCompiler {
+    private final Map<String, UserFunction> functions;
+    private final Map<String, Integer> funcSlots = new HashMap<>();
+    private int[] code = new int[64];
+    private int[] lines = new int[64];
+    private int size;
+    private int line;
+    private int[] exprCode = new int[16];
+    private int exprSize;
+    private int exprDepth, maxExprDepth;
+
+    private BytecodeCompiler(Map<String, UserFunction> functions) {
+        this.functions = functions;
+        for (String name : functions.keySet())
+            funcSlots.put(name, funcSlots.size());
+    }
+
+    static Bytecode compile(Map<String, UserFunction> functions, List<Instruction> main, String[] symbols) {
+        BytecodeCompiler c = new BytecodeCompiler(functions);
+        for (Instruction instr : main)
+            instr.emit(c);
+        c.setLine(-1);
+        c.put(Bytecode.HALT);
+        int n = c.funcSlots.size();
+        int[] entry = new int[n];
+        int[][] params = new int[n][];
+        String[] names = new String[n];
+        for (Map.Entry<String, Integer> e : c.funcSlots.entrySet()) {
+            UserFunction func = functions.get(e.getKey());
+            int slot = e.getValue();
+            names[slot] = func.getName();
+            entry[slot] = c.size;
+            for (Instruction instr : func.getInstructions())
+                instr.emit(c);
+            c.setLine(-1);
+            c.put(Bytecode.RET);
+            params[slot] = func.getParamSymbols();
+        }
+        return new Bytecode(Arrays.copyOf(c.code, c.size), Arrays.copyOf(c.exprCode, c.exprSize),
+                c.maxExprDepth, entry, params, names, symbols, Arrays.copyOf(c.lines, c.size), false);
+    }
+
+    // Línea del programa de las instrucciones que se emiten a partir de ahora
+    void setLine(int line) { this.line = line; }
+
+    void emitSimple(String cmd) {
+        int op = Bytecode.simpleOpcode(cmd);
+        if (op >= 0)
+            put(op);
+    }
+
+    void emitCall(String funcName, Expr[] argExprs) {
+        Integer slot = funcSlots.get(funcName);
+        if (slot == null) return;  // Igual que el intérprete de árbol: se ignora
+        put(Bytecode.CALL);
+        put(slot);
+        put(argExprs.length);
+        for (Expr expr : argExprs)
+            expr.emit(this);
+    }
+
+    void emitCallStep() {
+        put(Bytecode.STEP);
+    }
+
+    // Devuelve la posición del LOOP para poder parchear el salto en endLoop
+    int beginLoop(Expr timesExpr) {
+        int loopPc = size;
+        put(Bytecode.LOOP);
+        timesExpr.emit(this);
+        put(0);  // endPc, se rellena al cerrar el bucle
+        return loopPc;
+    }
+
+    void endLoop(int loopPc) {
+        put(Bytecode.ENDLOOP);
+        put(loopPc + 4);
+        code[loopPc + 3] = size;
+    }
+
+    // Devuelve la posición del FORWARDS para poder parchear el salto en endForwardRun
+    int beginForwardRun(int moves, int steps) {
+        int runPc = size;
+        put(Bytecode.FORWARDS);
+        put(moves);
+        put(steps);
+        put(0);  // endPc, se rellena al cerrar el tramo
+        return runPc;
+    }
+
+    void endForwardRun(int runPc) {
+        code[runPc + 3] = size;
+    }
+
+    void emitOperand(int kind, int value) {
+        put(kind);
+        put(value);
+    }
+
+    // Operando para una expresión con operadores: su código de pila va a exprCode
+    void emitExprOperand(Expr expr) {
+        int start = exprSize;
+        exprDepth = 0;
+        expr.emitStack(this);
+        putExpr(Bytecode.E_END);
+        emitOperand(Bytecode.EXPR_CODE, start);
+    }
+
+    void emitExprOp(int op, int operand) {
+        putExpr(op);
+        putExpr(operand);
+        exprDepth++;
+        maxExprDepth = Math.max(maxExprDepth, exprDepth);
+    }
+
+    void emitExprOp(int op) {
+        putExpr(op);
+        if (op != Bytecode.E_NEG)
+            exprDepth--;
+    }
+
+    private void putExpr(int value) {
+        if (exprSize == exprCode.length)
+            exprCode = Arrays.copyOf(exprCode, exprSize * 2);
+        exprCode[exprSize++] = value;
+    }
+
+    private void put(int value) {
+        if (size == code.length) {
+            code = Arrays.copyOf(code, size * 2);
+            lines = Arrays.copyOf(lines, size * 2);
+        }
+        lines[size] = line;
+        code[size++] = value;
+    }
+}
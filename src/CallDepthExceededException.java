@@ -0,0 +1,14 @@
+// Se lanza cuando la pila de llamadas de un programa supera el límite de memoria
+// configurado con LightBot.setCallStackBudget (por ejemplo, una recursión sin fin)
+public class CallDepthExceededException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    private final int depth;
+
+    CallDepthExceededException(int depth, long budgetBytes) {
+        super("Se ha superado el límite de la pila de llamadas (" + budgetBytes
+                + " bytes) con " + depth + " llamadas activas");
+        this.depth = depth;
+    }
+
+    public int getDepth() { return depth; }
+}
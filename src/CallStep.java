@@ -0,0 +1,12 @@
+// Paso de una llamada que el optimizador ha integrado en quien llama (ver ProgramOptimizer):
+// cuenta igual que el CALL original, pero no apila ningún frame
+class CallStep implements Instruction {
+    private final int line;
+    CallStep(int line) { this.line = line; }
+    public void execute(LightBot bot) { bot.countControlStep(); }
+    public void emit(BytecodeCompiler out) {
+        out.setLine(line);
+        out.emitCallStep();
+    }
+    public int getLine() { return line; }
+}
@@ -0,0 +1,9 @@
+// Permite cancelar desde otro hilo una ejecución lanzada con LightBot.run(program, limits).
+// El intérprete lo consulta cada pocos miles de pasos, así que la parada no es inmediata.
+public final class CancellationToken {
+    private volatile boolean cancelled;
+
+    public void cancel() { cancelled = true; }
+
+    public boolean isCancelled() { return cancelled; }
+}
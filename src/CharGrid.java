@@ -0,0 +1,85 @@
+// Mapa como matriz de caracteres: el mapa inicial y el actual
+class CharGrid implements Grid {
+    private final int width, height;
+    private final char[][] map;
+    private final LitLog litLog = new LitLog();
+    private long remaining;
+
+    CharGrid(String[] lines, int width) {
+        this.width = width;
+        this.height = lines.length;
+        map = new char[height][width];
+        fill(lines);
+    }
+
+    private void fill(String[] lines) {
+        remaining = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                char c = lines[y].charAt(x);
+                if ("RLUD".indexOf(c) > -1) c = '.';
+                if (c == 'O') remaining++;
+                map[y][x] = c;
+            }
+        }
+    }
+
+    public boolean load(String[] lines) {
+        if (lines.length != height || lines[0].length() != width)
+            return false;
+        fill(lines);
+        litLog.clear();
+        return true;
+    }
+
+    public int width() { return width; }
+    public int height() { return height; }
+
+    public boolean isWalkable(int x, int y) {
+        char c = map[y][x];
+        return c == '.' || c == 'O' || c == 'X' || c == 'x';
+    }
+
+    public boolean light(int x, int y) {
+        if (map[y][x] == '.') {
+            map[y][x] = 'x';
+        } else if (map[y][x] == 'O') {
+            map[y][x] = 'X';
+            remaining--;
+        } else {
+            return false;
+        }
+        litLog.add(y * width + x);
+        return true;
+    }
+
+    public char cell(int x, int y) { return map[y][x]; }
+
+    // Solo se apagan las casillas encendidas durante la ejecución: O(casillas encendidas)
+    public void reset() { restoreLit(null); }
+
+    public String row(int y) { return new String(map[y]); }
+
+    public LitNode litHead() { return litLog.head(); }
+
+    public void restoreLit(LitNode head) { litLog.restore(head, this); }
+
+    public int litMark() { return litLog.mark(); }
+
+    public void undoLit(int mark) { litLog.undo(mark, this); }
+
+    public void setLit(long cell, boolean on) {
+        char[] row = map[(int) (cell / width)];
+        int x = (int) (cell % width);
+        if (on && row[x] == 'O')
+            remaining--;
+        else if (!on && row[x] == 'X')
+            remaining++;
+        if (on)
+            row[x] = row[x] == 'O' ? 'X' : 'x';
+        else
+            row[x] = row[x] == 'X' ? 'O' : '.';
+    }
+
+    public long remainingTargets() { return remaining; }
+}
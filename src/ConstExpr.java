@@ -0,0 +1,7 @@
+class ConstExpr extends Expr {
+    final int value;
+    ConstExpr(int value) { this.value = value; }
+    int eval(LightBot bot) { return value; }
+    void emit(BytecodeCompiler out) { out.emitOperand(Bytecode.EXPR_CONST, value); }
+    void emitStack(BytecodeCompiler out) { out.emitExprOp(Bytecode.E_CONST, value); }
+}
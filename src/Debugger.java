@@ -0,0 +1,131 @@
+import java.util.*;
+
+// Depurador paso a paso de un programa sobre un LightBot, con puntos de parada por línea.
+// Usa el motor de bytecode y la ejecución reanudable de LightBot: cada orden continúa la ejecución
+// detenida con un límite de pasos (step) o con una copia del bytecode en la que las instrucciones de
+// las líneas con punto de parada se han cambiado por BREAK (run, runUntil). El bytecode normal no
+// cambia, así que LightBot.run sigue igual de rápido; mientras depura no salta vueltas de bucle.
+// Los resultados indican cómo se detuvo: STEPS_EXCEEDED después de un paso, BREAKPOINT en un punto
+// de parada, COMPLETED al acabar el programa (y TIME_EXCEEDED o CANCELLED según los límites).
+public final class Debugger {
+    private final LightBot bot;
+    private final Bytecode code;
+    private final RunLimits limits;
+    private final Set<Integer> breakpoints = new TreeSet<>();
+    private RunResult last;
+
+    public Debugger(LightBot bot, Program program) {
+        this(bot, program, RunLimits.NONE);
+    }
+
+    // Prepara la ejecución de program detenida antes de la primera instrucción.
+    // limits se aplica a toda la ejecución (el máximo de pasos es el total).
+    public Debugger(LightBot bot, Program program, RunLimits limits) {
+        this.bot = bot;
+        this.code = program.getBytecode();
+        this.limits = limits;
+        // Siempre el bytecode sin optimizar, que conserva las llamadas y las líneas del programa
+        last = bot.run(program, code, limits.withMaxSteps(0));
+    }
+
+    public void addBreakpoint(int line) { breakpoints.add(line); }
+
+    public void removeBreakpoint(int line) { breakpoints.remove(line); }
+
+    public Set<Integer> getBreakpoints() { return Collections.unmodifiableSet(breakpoints); }
+
+    // Ejecuta un paso (FORWARD, LEFT, RIGHT, LIGHT, CALL o una vuelta de REPEAT) y se detiene antes del siguiente
+    public RunResult step() {
+        checkPaused();
+        return advance(code, bot.currentSteps() + 1);
+    }
+
+    // Como step, pero una llamada se ejecuta entera hasta volver a la instrucción siguiente
+    // (salvo que antes encuentre un punto de parada)
+    public RunResult stepOver() {
+        checkPaused();
+        int pc = bot.currentPc();
+        if (code.code[pc] != Bytecode.CALL)
+            return step();
+        int depth = bot.callDepth();
+        int returnPc = pc + code.length(pc);
+        step();
+        while (isPaused() && bot.callDepth() > depth) {
+            runTo(Collections.singletonList(returnPc));
+            // Ha acabado, se ha quedado sin pasos o tiempo, o ha llegado a otro punto de parada
+            if (last.getStatus() != RunResult.Status.BREAKPOINT || bot.currentPc() != returnPc)
+                break;
+            // Una llamada recursiva también vuelve a returnPc, pero desde más adentro
+            if (bot.callDepth() == depth)
+                last = new RunResult(RunResult.Status.STEPS_EXCEEDED, last.getSteps());
+        }
+        return last;
+    }
+
+    // Continúa hasta el siguiente punto de parada o hasta el final
+    public RunResult run() {
+        checkPaused();
+        return runTo(Collections.emptyList());
+    }
+
+    // Continúa hasta llegar a una instrucción de line, a un punto de parada o al final
+    public RunResult runUntil(int line) {
+        checkPaused();
+        return runTo(code.pcsAtLine(line));
+    }
+
+    private RunResult runTo(List<Integer> extraPcs) {
+        Set<Integer> pcs = new HashSet<>(extraPcs);
+        for (int line : breakpoints)
+            pcs.addAll(code.pcsAtLine(line));
+        if (pcs.contains(bot.currentPc())) {
+            // Parados en un punto de parada: primero se ejecuta la instrucción original
+            advance(code, bot.currentSteps() + 1);
+            if (!isPaused() || last.getStatus() != RunResult.Status.STEPS_EXCEEDED || last.getSteps() >= limits.getMaxSteps())
+                return last;
+        }
+        return advance(pcs.isEmpty() ? code : code.withBreakpoints(pcs), limits.getMaxSteps());
+    }
+
+    private RunResult advance(Bytecode bc, long maxSteps) {
+        last = bot.resume(bc, limits.withMaxSteps(Math.min(maxSteps, limits.getMaxSteps())));
+        return last;
+    }
+
+    private void checkPaused() {
+        if (!isPaused())
+            throw new IllegalStateException("La ejecución ya ha terminado");
+    }
+
+    // Si la ejecución está detenida y puede continuar
+    public boolean isPaused() { return bot.canResume() && bot.currentBytecode() == code; }
+
+    public RunResult getLastResult() { return last; }
+
+    public long getSteps() { return last.getSteps(); }
+
+    // Línea del programa (empezando por 1) de la siguiente instrucción, o -1 si no hay
+    public int getLine() {
+        return isPaused() ? code.lines[bot.currentPc()] : -1;
+    }
+
+    // Función de la siguiente instrucción, o null si es del programa principal
+    public String getFunction() {
+        int slot = isPaused() ? code.functionAt(bot.currentPc()) : -1;
+        return slot < 0 ? null : code.funcNames[slot];
+    }
+
+    public int getCallDepth() { return bot.callDepth(); }
+
+    // Parámetros de la llamada en curso con sus valores; vacío en el programa principal
+    public Map<String, Integer> getFrameValues() {
+        Map<String, Integer> values = new LinkedHashMap<>();
+        int frame = bot.callDepth() - 1;
+        if (frame < 0)
+            return values;
+        int[] params = bot.frameParamSymbols(frame);
+        for (int i = 0; i < params.length; i++)
+            values.put(code.symbols[params[i]], bot.frameValue(frame, i));
+        return values;
+    }
+}
@@ -0,0 +1,88 @@
+import java.util.*;
+
+// Contadores que el intérprete de bytecode rellena cuando las métricas están activadas
+// (LightBot.setMetricsEnabled). Con las métricas desactivadas el intérprete no llega a tocar esta clase.
+final class ExecutionMetrics {
+    final long[] opCounts = new long[Bytecode.OPCODE_NAMES.length];
+    long loopIterations;
+    long fastForwardedIterations;
+    long blockedForwards;
+    long lightsToggled;
+    int maxCallDepth;
+    private final Map<String, long[]> functionTotals = new HashMap<>();  // nombre -> {llamadas, nanos}
+
+    // Estado de la ejecución en curso, indexado por la posición de la función en el Bytecode
+    private String[] funcNames = new String[0];
+    private long[] calls = new long[0];
+    private long[] nanos = new long[0];
+    private int[] active = new int[0];
+    private int[] stackSlot = new int[16];
+    private long[] stackStart = new long[16];
+    private int depth;
+
+    void begin(Bytecode bc) {
+        int n = bc.funcNames.length;
+        funcNames = bc.funcNames;
+        calls = new long[n];
+        nanos = new long[n];
+        active = new int[n];
+        depth = 0;
+    }
+
+    void enter(int slot) {
+        if (depth == stackSlot.length) {
+            stackSlot = Arrays.copyOf(stackSlot, depth * 2);
+            stackStart = Arrays.copyOf(stackStart, depth * 2);
+        }
+        stackSlot[depth] = slot;
+        stackStart[depth] = System.nanoTime();
+        depth++;
+        maxCallDepth = Math.max(maxCallDepth, depth);
+        calls[slot]++;
+        active[slot]++;
+    }
+
+    void exit() {
+        exit(System.nanoTime());
+    }
+
+    // El tiempo inclusivo solo se suma en la llamada más externa de cada función,
+    // para no contar varias veces el mismo intervalo en las recursivas
+    private void exit(long now) {
+        if (depth == 0)
+            return;  // llamada abierta en una ejecución anterior que ahora continúa (LightBot.resume)
+        depth--;
+        int slot = stackSlot[depth];
+        if (--active[slot] == 0)
+            nanos[slot] += now - stackStart[depth];
+    }
+
+    // Cierra las llamadas que sigan abiertas (ejecución detenida) y acumula por nombre de función
+    void end() {
+        long now = System.nanoTime();
+        while (depth > 0)
+            exit(now);
+        for (int i = 0; i < funcNames.length; i++) {
+            if (calls[i] == 0) continue;
+            long[] total = functionTotals.computeIfAbsent(funcNames[i], k -> new long[2]);
+            total[0] += calls[i];
+            total[1] += nanos[i];
+        }
+        calls = new long[0];
+        funcNames = new String[0];
+    }
+
+    MetricsSnapshot snapshot() {
+        Map<String, Long> ops = new LinkedHashMap<>();
+        for (int op = 0; op < opCounts.length; op++)
+            ops.put(Bytecode.OPCODE_NAMES[op], opCounts[op]);
+        Map<String, Long> funcCalls = new TreeMap<>();
+        Map<String, Long> funcNanos = new TreeMap<>();
+        for (Map.Entry<String, long[]> e : functionTotals.entrySet()) {
+            funcCalls.put(e.getKey(), e.getValue()[0]);
+            funcNanos.put(e.getKey(), e.getValue()[1]);
+        }
+        return new MetricsSnapshot(ops, funcCalls, funcNanos, loopIterations, fastForwardedIterations,
+                maxCallDepth, blockedForwards, lightsToggled);
+    }
+}
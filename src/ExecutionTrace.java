@@ -0,0 +1,51 @@
+import java.nio.ByteBuffer;
+import java.util.*;
+
+// Traza binaria de una ejecución: todos los pasos desde startTrace() hasta stopTrace().
+// Cada byte guarda un evento (3 bits) y cuántas veces seguidas se repite (5 bits, de 1 a 32).
+// Los eventos son cambios respecto al paso anterior (avanzar, girar, encender), así que la posición
+// no se guarda: se recalcula al reproducir sobre el mismo mapa. Cada KEYFRAME_INTERVAL pasos se
+// apunta un fotograma clave con la posición del robot y cuántas casillas de litCells había
+// encendidas, para poder saltar a cualquier paso sin reproducir desde el principio (ver
+// TraceReplayer): las casillas de un fotograma a otro son un tramo de litCells.
+public final class ExecutionTrace {
+    private final String[] initialMap;
+    private final ByteBuffer data;      // solo lectura, de 0 a limit()
+    private final long steps;
+    private final int keyframeCount;
+    private final long[] keyframeSteps;
+    private final int[] keyframes;      // TraceRecorder.KEYFRAME_SIZE enteros por fotograma
+    private final int[] litCells;       // casillas encendidas en orden, como y * ancho + x
+
+    ExecutionTrace(String[] initialMap, ByteBuffer data, long steps, int keyframeCount,
+                   long[] keyframeSteps, int[] keyframes, int[] litCells) {
+        this.initialMap = initialMap;
+        this.data = data;
+        this.steps = steps;
+        this.keyframeCount = keyframeCount;
+        this.keyframeSteps = keyframeSteps;
+        this.keyframes = keyframes;
+        this.litCells = litCells;
+    }
+
+    // Pasos grabados, contados igual que RunResult.getSteps()
+    public long getSteps() { return steps; }
+
+    // Tamaño de los eventos codificados en bytes
+    public int getEncodedSize() { return data.limit(); }
+
+    public String[] getInitialMap() { return initialMap.clone(); }
+
+    String[] initialMap() { return initialMap; }
+    ByteBuffer data() { return data; }
+    int[] litCells() { return litCells; }
+    int[] keyframes() { return keyframes; }
+
+    // Último fotograma clave en el paso step o antes
+    int keyframeAt(long step) {
+        int i = Arrays.binarySearch(keyframeSteps, 0, keyframeCount, step);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    long keyframeStep(int k) { return keyframeSteps[k]; }
+}
@@ -0,0 +1,160 @@
+import java.util.*;
+
+// Expresión entera ya resuelta al analizar el programa. Las hojas son constantes,
+// parámetros de la función actual (por posición) o nombres que se buscan en los frames
+// de las funciones que han llamado a la actual. Se combinan con + - * / %, paréntesis
+// y comparaciones (< <= > >= == !=), que valen 1 si se cumplen y 0 si no.
+abstract class Expr {
+    abstract int eval(LightBot bot);
+    // Traduce la expresión a código de pila (ver Bytecode.E_*)
+    abstract void emitStack(BytecodeCompiler out);
+    // Traduce la expresión a un operando de bytecode
+    void emit(BytecodeCompiler out) { out.emitExprOperand(this); }
+    // Sustituye los parámetros conocidos (locals[posición], null si no se conoce) y calcula lo que
+    // quede constante (ver ProgramOptimizer). Las divisiones por cero se dejan para que fallen al ejecutarse.
+    Expr substitute(Expr[] locals) { return this; }
+
+    // params: parámetros de la función donde aparece la expresión (vacío en el programa principal).
+    // Un texto que no es una expresión válida se trata como un nombre, igual que antes de
+    // existir los operadores, y falla al evaluarse si no es un parámetro.
+    static Expr parse(String text, List<String> params, Symbols symbols) {
+        Expr expr = new ExprParser(text, params, symbols).parse();
+        return expr != null ? expr : reference(text, params, symbols);
+    }
+
+    static Expr reference(String text, List<String> params, Symbols symbols) {
+        int slot = params.lastIndexOf(text);
+        if (slot >= 0)
+            return new LocalExpr(slot);
+        return new NameExpr(text, symbols.intern(text));
+    }
+
+    // Comprueba el formato antes de convertir para no usar excepciones como control de flujo
+    static boolean isNumber(String text) {
+        int start = text.startsWith("-") || text.startsWith("+") ? 1 : 0;
+        if (start == text.length() || text.length() - start > 18) return false;
+        for (int i = start; i < text.length(); i++)
+            if (text.charAt(i) < '0' || text.charAt(i) > '9') return false;
+        return Long.parseLong(text) == (int) Long.parseLong(text);
+    }
+}
+
+// Parámetro de la función en ejecución, en el frame superior
+class LocalExpr extends Expr {
+    final int slot;
+    LocalExpr(int slot) { this.slot = slot; }
+    int eval(LightBot bot) { return bot.localValue(slot); }
+    Expr substitute(Expr[] locals) { return slot < locals.length && locals[slot] != null ? locals[slot] : this; }
+    void emit(BytecodeCompiler out) { out.emitOperand(Bytecode.EXPR_LOCAL, slot); }
+    void emitStack(BytecodeCompiler out) { out.emitExprOp(Bytecode.E_LOCAL, slot); }
+}
+
+// Analizador descendente recursivo de expresiones:
+//   comparacion := suma (('<' | '<=' | '>' | '>=' | '==' | '!=') suma)?
+//   suma        := producto (('+' | '-') producto)*
+//   producto    := unario (('*' | '/' | '%') unario)*
+//   unario      := ('-' | '+') unario | numero | nombre | '(' comparacion ')'
+class ExprParser {
+    private final String text;
+    private final List<String> params;
+    private final Symbols symbols;
+    private int pos;
+    private boolean failed;
+
+    ExprParser(String text, List<String> params, Symbols symbols) {
+        this.text = text;
+        this.params = params;
+        this.symbols = symbols;
+    }
+
+    // Devuelve null si el texto no es una expresión completa
+    Expr parse() {
+        Expr expr = comparison();
+        skipSpaces();
+        return failed || pos != text.length() ? null : expr;
+    }
+
+    private Expr comparison() {
+        Expr left = sum();
+        skipSpaces();
+        int op = -1;
+        if (accept("<=")) op = Bytecode.E_LE;
+        else if (accept(">=")) op = Bytecode.E_GE;
+        else if (accept("==")) op = Bytecode.E_EQ;
+        else if (accept("!=")) op = Bytecode.E_NE;
+        else if (accept("<")) op = Bytecode.E_LT;
+        else if (accept(">")) op = Bytecode.E_GT;
+        return op < 0 ? left : new BinaryExpr(op, left, sum());
+    }
+
+    private Expr sum() {
+        Expr left = product();
+        while (true) {
+            skipSpaces();
+            if (accept("+")) left = new BinaryExpr(Bytecode.E_ADD, left, product());
+            else if (accept("-")) left = new BinaryExpr(Bytecode.E_SUB, left, product());
+            else return left;
+        }
+    }
+
+    private Expr product() {
+        Expr left = unary();
+        while (true) {
+            skipSpaces();
+            if (accept("*")) left = new BinaryExpr(Bytecode.E_MUL, left, unary());
+            else if (accept("/")) left = new BinaryExpr(Bytecode.E_DIV, left, unary());
+            else if (accept("%")) left = new BinaryExpr(Bytecode.E_MOD, left, unary());
+            else return left;
+        }
+    }
+
+    private Expr unary() {
+        skipSpaces();
+        if (accept("-")) {
+            if (pos < text.length() && Character.isDigit(text.charAt(pos)))
+                return number("-");
+            Expr operand = unary();
+            return new NegExpr(operand);
+        }
+        if (accept("+"))
+            return unary();
+        if (accept("(")) {
+            Expr inner = comparison();
+            skipSpaces();
+            if (!accept(")")) failed = true;
+            return inner;
+        }
+        if (pos < text.length() && Character.isDigit(text.charAt(pos)))
+            return number("");
+        int start = pos;
+        while (pos < text.length() && (Character.isLetterOrDigit(text.charAt(pos)) || text.charAt(pos) == '_')) pos++;
+        if (start == pos) {
+            failed = true;
+            return new ConstExpr(0);
+        }
+        return Expr.reference(text.substring(start, pos), params, symbols);
+    }
+
+    private Expr number(String sign) {
+        int start = pos;
+        while (pos < text.length() && Character.isDigit(text.charAt(pos))) pos++;
+        String digits = sign + text.substring(start, pos);
+        if (!Expr.isNumber(digits)) {
+            failed = true;
+            return new ConstExpr(0);
+        }
+        return new ConstExpr(Integer.parseInt(digits));
+    }
+
+    private boolean accept(String token) {
+        if (text.startsWith(token, pos)) {
+            pos += token.length();
+            return true;
+        }
+        return false;
+    }
+
+    private void skipSpaces() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+    }
+}
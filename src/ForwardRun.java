@@ -0,0 +1,97 @@
+import java.util.*;
+
+// Tramo de FORWARD seguidos, sueltos o dentro de REPEAT con un número fijo de vueltas, que se
+// ejecuta de golpe: avanza moves casillas y cuenta steps pasos (los FORWARD más las vueltas).
+// Si no se puede (con una traza, métricas o el depurador, o si no quedan pasos para el tramo
+// entero) se ejecutan las instrucciones originales, que siguen dentro, una a una.
+class ForwardRun implements Instruction {
+    private final int moves;
+    private final int steps;
+    private final List<Instruction> instructions;
+    private final int line;
+    ForwardRun(int moves, int steps, List<Instruction> instructions, int line) {
+        this.moves = moves;
+        this.steps = steps;
+        this.instructions = instructions;
+        this.line = line;
+    }
+
+    public void execute(LightBot bot) {
+        if (!bot.forwardRun(moves, steps))
+            for (Instruction instr : instructions)
+                instr.execute(bot);
+    }
+
+    public void emit(BytecodeCompiler out) {
+        out.setLine(line);
+        int runPc = out.beginForwardRun(moves, steps);
+        for (Instruction instr : instructions)
+            instr.emit(out);
+        out.endForwardRun(runPc);
+    }
+
+    public int getLine() { return line; }
+
+    // Pasada de mirilla sobre las instrucciones de un bloque ya analizado: cada tramo que avanza
+    // al menos dos casillas se sustituye por un ForwardRun
+    static List<Instruction> fuse(List<Instruction> instructions) {
+        List<Instruction> result = new ArrayList<>();
+        int i = 0;
+        while (i < instructions.size()) {
+            int j = i;
+            long moves = 0, steps = 0;
+            for (long[] cost; j < instructions.size() && (cost = cost(instructions.get(j))) != null
+                    && moves + cost[0] <= Integer.MAX_VALUE && steps + cost[1] <= Integer.MAX_VALUE; j++) {
+                moves += cost[0];
+                steps += cost[1];
+            }
+            if (j == i) {
+                result.add(instructions.get(i++));
+            } else if (moves < 2) {
+                result.addAll(instructions.subList(i, j));
+                i = j;
+            } else {
+                List<Instruction> run = new ArrayList<>();
+                for (Instruction instr : instructions.subList(i, j)) {
+                    if (instr instanceof ForwardRun)
+                        run.addAll(((ForwardRun) instr).instructions);
+                    else
+                        run.add(instr);
+                }
+                result.add(new ForwardRun((int) moves, (int) steps, run, instructions.get(i).getLine()));
+                i = j;
+            }
+        }
+        return result;
+    }
+
+    // {casillas, pasos} de una instrucción que solo avanza, o null si hace cualquier otra cosa
+    private static long[] cost(Instruction instr) {
+        if (instr instanceof ForwardRun) {
+            ForwardRun run = (ForwardRun) instr;
+            return new long[]{run.moves, run.steps};
+        }
+        if (instr instanceof CallStep)
+            return new long[]{0, 1};
+        if (instr instanceof SimpleInstruction)
+            return ((SimpleInstruction) instr).getCommand().equals("FORWARD") ? new long[]{1, 1} : null;
+        if (!(instr instanceof ParamRepeatBlock))
+            return null;
+        ParamRepeatBlock block = (ParamRepeatBlock) instr;
+        if (!(block.getTimesExpr() instanceof ConstExpr) || ((ConstExpr) block.getTimesExpr()).value <= 0)
+            return null;
+        long times = ((ConstExpr) block.getTimesExpr()).value;
+        long moves = 0, steps = 0;
+        for (Instruction body : block.getInstructions()) {
+            long[] cost = cost(body);
+            if (cost == null)
+                return null;
+            moves += cost[0];
+            steps += cost[1];
+        }
+        // Cada vuelta cuenta un paso más
+        moves *= times;
+        steps = (steps + 1) * times;
+        return moves <= Integer.MAX_VALUE && steps <= Integer.MAX_VALUE ? new long[]{moves, steps} : null;
+    }
+}
@@ -0,0 +1,220 @@
+import java.util.*;
+
+// Efecto de una llamada a una función con unos argumentos y una dirección de entrada, calculado
+// ejecutándola una vez en un mundo sin paredes ni bordes desde (0, 0): desplazamiento, dirección
+// final, casillas encendidas relativas a la posición de entrada, pasos y rectángulo que recorre.
+// Sin paredes el efecto no depende de la posición, así que sirve para cualquier llamada igual cuyo
+// rectángulo no tenga ninguna pared (MoveTable.isClear): se aplica de golpe en lugar de ejecutarla.
+// Solo se resumen las llamadas que no dependen de nada más: si la función busca por nombre un valor
+// de fuera de la llamada, falla, o pasa de MAX_WORK instrucciones o MAX_LIGHTS casillas, no hay resumen.
+final class FunctionSummary {
+    static final int MAX_WORK = 1 << 16;
+    static final int MAX_LIGHTS = 1024;
+    private static final int MAX_OFFSET = 1 << 30;
+    private static final int[] DX = {1, 0, -1, 0};
+    private static final int[] DY = {0, 1, 0, -1};
+
+    final long steps;           // pasos dentro de la llamada, sin contar el CALL
+    final int dx, dy, dir;
+    final int minX, minY, maxX, maxY;
+    final int[] lights;         // x, y de cada casilla encendida, en el orden en que se encienden
+
+    private FunctionSummary(long steps, int dx, int dy, int dir, int minX, int minY, int maxX, int maxY, int[] lights) {
+        this.steps = steps;
+        this.dx = dx;
+        this.dy = dy;
+        this.dir = dir;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.lights = lights;
+    }
+
+    // Ejecuta la función slot con los argumentos values[base .. base + nargs) entrando en dirección dir.
+    // Devuelve null si la llamada no se puede resumir.
+    static FunctionSummary compute(Bytecode bc, int slot, int[] values, int base, int nargs, int dir) {
+        final int[] code = bc.code;
+        int[] frameValues = Arrays.copyOfRange(values, base, base + Math.max(nargs, 16));
+        int[][] frameParams = new int[16][];
+        int[] frameBase = new int[16];
+        int[] returnStack = new int[16];
+        int[] loopStack = new int[16];
+        if (nargs < bc.funcParams[slot].length)
+            return null;
+        // El frame de la propia llamada, que termina con su RET
+        frameParams[0] = bc.funcParams[slot];
+        int callTop = 1, valueTop = bc.funcParams[slot].length, loopTop = 0;
+        long x = 0, y = 0, steps = 0;
+        long minX = 0, minY = 0, maxX = 0, maxY = 0;
+        Set<Long> lit = new LinkedHashSet<>();
+        int pc = bc.funcEntry[slot];
+        for (int work = 0; work < MAX_WORK; work++) {
+            switch (code[pc]) {
+                case Bytecode.FORWARD:
+                case Bytecode.FORWARDS: {
+                    long k = code[pc] == Bytecode.FORWARD ? 1 : code[pc + 1];
+                    steps += code[pc] == Bytecode.FORWARD ? 1 : code[pc + 2];
+                    x += k * DX[dir];
+                    y += k * DY[dir];
+                    if (Math.abs(x) > MAX_OFFSET || Math.abs(y) > MAX_OFFSET)
+                        return null;
+                    minX = Math.min(minX, x);
+                    minY = Math.min(minY, y);
+                    maxX = Math.max(maxX, x);
+                    maxY = Math.max(maxY, y);
+                    pc = code[pc] == Bytecode.FORWARD ? pc + 1 : code[pc + 3];
+                    break;
+                }
+                case Bytecode.LEFT:
+                    steps++;
+                    dir = (dir + 3) % 4;
+                    pc++;
+                    break;
+                case Bytecode.RIGHT:
+                    steps++;
+                    dir = (dir + 1) % 4;
+                    pc++;
+                    break;
+                case Bytecode.LIGHT:
+                    steps++;
+                    if (lit.add(x << 32 | y & 0xFFFFFFFFL) && lit.size() > MAX_LIGHTS)
+                        return null;
+                    pc++;
+                    break;
+                case Bytecode.STEP:
+                    steps++;
+                    pc++;
+                    break;
+                case Bytecode.LOOP: {
+                    Integer n = eval(bc, code[pc + 1], code[pc + 2], frameParams, frameBase, frameValues, callTop);
+                    if (n == null)
+                        return null;
+                    if (n <= 0) {
+                        pc = code[pc + 3];
+                    } else {
+                        steps++;
+                        if (loopTop == loopStack.length)
+                            loopStack = Arrays.copyOf(loopStack, loopTop * 2);
+                        loopStack[loopTop++] = n;
+                        pc += 4;
+                    }
+                    break;
+                }
+                case Bytecode.ENDLOOP:
+                    if (loopStack[loopTop - 1] > 1) {
+                        steps++;
+                        loopStack[loopTop - 1]--;
+                        pc = code[pc + 1];
+                    } else {
+                        loopTop--;
+                        pc += 2;
+                    }
+                    break;
+                case Bytecode.CALL: {
+                    steps++;
+                    int callee = code[pc + 1];
+                    int n = code[pc + 2];
+                    int nparams = bc.funcParams[callee].length;
+                    if (n < nparams)
+                        return null;  // La llamada de verdad lanzará la excepción
+                    if (callTop == frameBase.length) {
+                        frameParams = Arrays.copyOf(frameParams, callTop * 2);
+                        frameBase = Arrays.copyOf(frameBase, callTop * 2);
+                        returnStack = Arrays.copyOf(returnStack, callTop * 2);
+                    }
+                    if (valueTop + n > frameValues.length)
+                        frameValues = Arrays.copyOf(frameValues, Math.max(frameValues.length * 2, valueTop + n));
+                    for (int i = 0; i < n; i++) {
+                        Integer v = eval(bc, code[pc + 3 + 2 * i], code[pc + 4 + 2 * i], frameParams, frameBase, frameValues, callTop);
+                        if (v == null)
+                            return null;
+                        frameValues[valueTop + i] = v;
+                    }
+                    returnStack[callTop] = pc + 3 + 2 * n;
+                    frameParams[callTop] = bc.funcParams[callee];
+                    frameBase[callTop] = valueTop;
+                    callTop++;
+                    valueTop += nparams;
+                    pc = bc.funcEntry[callee];
+                    break;
+                }
+                case Bytecode.RET:
+                    callTop--;
+                    if (callTop == 0) {
+                        int[] lights = new int[lit.size() * 2];
+                        int i = 0;
+                        for (long cell : lit) {
+                            lights[i++] = (int) (cell >> 32);
+                            lights[i++] = (int) cell;
+                        }
+                        return new FunctionSummary(steps, (int) x, (int) y, dir,
+                                (int) minX, (int) minY, (int) maxX, (int) maxY, lights);
+                    }
+                    valueTop = frameBase[callTop];
+                    pc = returnStack[callTop];
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return null;
+    }
+
+    // Como LightBot.evalOperand, pero sin salir de la llamada: null si un nombre no es de ninguna
+    // función llamada desde el resumen o si hay una división por cero
+    private static Integer eval(Bytecode bc, int kind, int value, int[][] frameParams, int[] frameBase,
+                                int[] frameValues, int callTop) {
+        if (kind == Bytecode.EXPR_CONST)
+            return value;
+        if (kind == Bytecode.EXPR_LOCAL)
+            return frameValues[frameBase[callTop - 1] + value];
+        if (kind == Bytecode.EXPR_VAR)
+            return lookup(value, frameParams, frameBase, frameValues, callTop);
+        int[] stack = new int[bc.maxExprDepth];
+        int sp = 0;
+        for (int p = value; ; ) {
+            int op = bc.exprCode[p];
+            switch (op) {
+                case Bytecode.E_END:
+                    return stack[0];
+                case Bytecode.E_CONST:
+                    stack[sp++] = bc.exprCode[p + 1];
+                    p += 2;
+                    break;
+                case Bytecode.E_LOCAL:
+                    stack[sp++] = frameValues[frameBase[callTop - 1] + bc.exprCode[p + 1]];
+                    p += 2;
+                    break;
+                case Bytecode.E_VAR: {
+                    Integer v = lookup(bc.exprCode[p + 1], frameParams, frameBase, frameValues, callTop);
+                    if (v == null)
+                        return null;
+                    stack[sp++] = v;
+                    p += 2;
+                    break;
+                }
+                case Bytecode.E_NEG:
+                    stack[sp - 1] = -stack[sp - 1];
+                    p++;
+                    break;
+                default:
+                    sp--;
+                    if ((op == Bytecode.E_DIV || op == Bytecode.E_MOD) && stack[sp] == 0)
+                        return null;
+                    stack[sp - 1] = BinaryExpr.apply(op, stack[sp - 1], stack[sp]);
+                    p++;
+            }
+        }
+    }
+
+    private static Integer lookup(int symbol, int[][] frameParams, int[] frameBase, int[] frameValues, int callTop) {
+        for (int f = callTop - 1; f >= 0; f--) {
+            int[] params = frameParams[f];
+            for (int i = params.length - 1; i >= 0; i--)
+                if (params[i] == symbol)
+                    return frameValues[frameBase[f] + i];
+        }
+        return null;
+    }
+}
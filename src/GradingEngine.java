@@ -0,0 +1,125 @@
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+// Corrige muchos pares (programa, mapa) en paralelo.
+// Los trabajos se reparten en un ForkJoinPool (cada hilo roba trabajo a los demás cuando se queda sin él)
+// y cada hilo reutiliza su propio LightBot: si el mapa tiene el mismo tamaño que el anterior se
+// cargan las casillas en los mismos planos de bits y se conservan las pilas del intérprete.
+// Los resultados salen por una cola acotada en el orden en que terminan. Si nadie los recoge,
+// los hilos se bloquean al llenarse la cola y submit se bloquea cuando hay demasiados trabajos
+// pendientes, así que la memoria no crece aunque los trabajos lleguen más rápido de lo que se leen.
+public final class GradingEngine implements AutoCloseable {
+    private final ForkJoinPool pool;
+    private final BlockingQueue<GradingResult> results;
+    private final Semaphore pending;  // trabajos enviados cuyo resultado no se ha recogido
+
+    // Hilo del pool con el LightBot que reutiliza entre trabajos
+    private static final class Worker extends ForkJoinWorkerThread {
+        LightBot bot;
+
+        Worker(ForkJoinPool pool) { super(pool); }
+    }
+
+    public GradingEngine() {
+        this(Runtime.getRuntime().availableProcessors(), 4096);
+    }
+
+    public GradingEngine(int parallelism, int queueCapacity) {
+        if (parallelism < 1 || queueCapacity < 1)
+            throw new IllegalArgumentException("Paralelismo o capacidad inválidos: " + parallelism + ", " + queueCapacity);
+        pool = new ForkJoinPool(parallelism, Worker::new, null, true);
+        results = new ArrayBlockingQueue<>(queueCapacity);
+        // Además de la cola, unos pocos trabajos por hilo para que ninguno se quede sin nada que robar
+        pending = new Semaphore(queueCapacity + 4 * parallelism);
+    }
+
+    // Envía un trabajo; se bloquea mientras haya demasiados resultados sin recoger
+    public void submit(GradingJob job) throws InterruptedException {
+        Objects.requireNonNull(job);
+        if (pool.isShutdown())
+            throw new IllegalStateException("El motor de corrección está cerrado");
+        pending.acquire();
+        try {
+            pool.execute(() -> publish(grade(job)));
+        } catch (RejectedExecutionException e) {
+            // Cerrado entre la comprobación y el envío: el trabajo no ocupa sitio
+            pending.release();
+            throw e;
+        }
+    }
+
+    // Siguiente resultado, esperando a que haya uno
+    public GradingResult take() throws InterruptedException {
+        GradingResult result = results.take();
+        pending.release();
+        return result;
+    }
+
+    // Siguiente resultado, o null si no llega ninguno antes del tiempo indicado
+    public GradingResult poll(long timeout, TimeUnit unit) throws InterruptedException {
+        GradingResult result = results.poll(timeout, unit);
+        if (result != null)
+            pending.release();
+        return result;
+    }
+
+    // Corrige todos los trabajos y pasa cada resultado a sink en el hilo que llama, a medida que terminan.
+    // Envía y recoge a la vez, así que no necesita otro hilo. No debe mezclarse con submit/take
+    // desde otros hilos. Devuelve el número de resultados.
+    public long gradeAll(Iterator<GradingJob> jobs, Consumer<? super GradingResult> sink) throws InterruptedException {
+        long submitted = 0, received = 0;
+        while (jobs.hasNext()) {
+            GradingJob job = Objects.requireNonNull(jobs.next());
+            while (!pending.tryAcquire()) {
+                sink.accept(take());
+                received++;
+            }
+            pending.release();
+            submit(job);
+            submitted++;
+        }
+        for (; received < submitted; received++)
+            sink.accept(take());
+        return received;
+    }
+
+    // Detiene los hilos; los trabajos que no hayan terminado se descartan
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private void publish(GradingResult result) {
+        try {
+            results.put(result);
+        } catch (InterruptedException e) {
+            // Solo ocurre al cerrar el motor
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static GradingResult grade(GradingJob job) {
+        Worker worker = (Worker) Thread.currentThread();
+        try {
+            Program program = job.program();
+            String[] map = job.mapLines();
+            LightBot bot = worker.bot;
+            if (bot == null || !bot.load(map)) {
+                bot = new LightBot(map, LightBot.Backend.BITS, null);
+                worker.bot = bot;
+            }
+            RunResult run = bot.run(program, job.getLimits());
+            return new GradingResult(job.getId(), run, bot.getRobotPosition(), bot.getMap());
+        } catch (RuntimeException e) {
+            // Un programa o un mapa inválido no debe parar la corrección de los demás
+            return new GradingResult(job.getId(), e.getMessage());
+        } catch (Throwable e) {
+            // Un Error (memoria o pila agotadas con un mapa enorme) también tiene que dar un resultado:
+            // si no, take() y gradeAll() lo esperarían para siempre. El LightBot puede haber quedado a
+            // medias, así que el siguiente trabajo de este hilo empieza con uno nuevo.
+            worker.bot = null;
+            return new GradingResult(job.getId(), e.toString());
+        }
+    }
+}
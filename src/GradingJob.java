@@ -0,0 +1,40 @@
+import java.util.Objects;
+
+// Trabajo para GradingEngine: un programa, un mapa y los límites de la ejecución.
+// El id sirve para emparejar el resultado, porque los resultados salen en el orden en que terminan.
+public final class GradingJob {
+    private final long id;
+    private final String[] programLines;  // null si el programa ya está compilado
+    private final Program program;
+    private final String[] map;
+    private final RunLimits limits;
+
+    public GradingJob(long id, String[] programLines, String[] map) {
+        this(id, Objects.requireNonNull(programLines), null, map, RunLimits.NONE);
+    }
+
+    public GradingJob(long id, Program program, String[] map, RunLimits limits) {
+        this(id, null, Objects.requireNonNull(program), map, limits);
+    }
+
+    private GradingJob(long id, String[] programLines, Program program, String[] map, RunLimits limits) {
+        this.id = id;
+        this.programLines = programLines;
+        this.program = program;
+        this.map = Objects.requireNonNull(map);
+        this.limits = Objects.requireNonNull(limits);
+    }
+
+    public GradingJob withLimits(RunLimits limits) {
+        return new GradingJob(id, programLines, program, map, limits);
+    }
+
+    public long getId() { return id; }
+    public String[] getMap() { return map.clone(); }
+    public RunLimits getLimits() { return limits; }
+
+    // Se compila en el hilo que ejecuta el trabajo, pasando por la caché de LightBot.compile
+    Program program() { return program != null ? program : LightBot.compile(programLines); }
+
+    String[] mapLines() { return map; }
+}
@@ -0,0 +1,35 @@
+// Resultado de un GradingJob: cómo terminó la ejecución, dónde acabó el robot y el mapa final,
+// o el mensaje de error si el programa o el mapa no eran válidos
+public final class GradingResult {
+    private final long id;
+    private final RunResult run;
+    private final int[] robotPosition;
+    private final String[] map;
+    private final String error;
+
+    GradingResult(long id, RunResult run, int[] robotPosition, String[] map) {
+        this.id = id;
+        this.run = run;
+        this.robotPosition = robotPosition;
+        this.map = map;
+        this.error = null;
+    }
+
+    GradingResult(long id, String error) {
+        this.id = id;
+        this.run = null;
+        this.robotPosition = null;
+        this.map = null;
+        this.error = error;
+    }
+
+    public long getId() { return id; }
+    public boolean isError() { return error != null; }
+    public String getError() { return error; }
+    // null si el trabajo acabó con error
+    public RunResult getRun() { return run; }
+    public int[] getRobotPosition() { return robotPosition == null ? null : robotPosition.clone(); }
+    public String[] getMap() { return map == null ? null : map.clone(); }
+
+    public String toString() { return id + ": " + (error != null ? error : run.toString()); }
+}
@@ -0,0 +1,32 @@
+// Almacenamiento del mapa. Las casillas transitables son '.', 'O', 'X' y 'x';
+// la casilla inicial del robot ('R', 'L', 'U', 'D') se guarda como '.'.
+interface Grid {
+    int width();
+    int height();
+    boolean isWalkable(int x, int y);
+    // Enciende la casilla; devuelve true si ha cambiado ('.' -> 'x', 'O' -> 'X')
+    boolean light(int x, int y);
+    char cell(int x, int y);
+    // Vuelve al mapa inicial
+    void reset();
+    String row(int y);
+    // Última casilla encendida desde el mapa inicial; identifica las casillas encendidas en este momento.
+    // Pasa a LitNode las casillas encendidas desde el último litHead() (ver LitLog): es para las instantáneas.
+    LitNode litHead();
+    // Vuelve a las casillas encendidas de un litHead() anterior del mismo mapa
+    void restoreLit(LitNode head);
+    // Casillas encendidas desde el mapa inicial; undoLit apaga las últimas hasta que quedan mark,
+    // sin crear nodos. La marca deja de valer con restoreLit.
+    int litMark();
+    void undoLit(int mark);
+    // Apaga o enciende una casilla (y * ancho + x) sin apuntarla; solo para restoreLit y undoLit
+    void setLit(long cell, boolean on);
+    // Casillas 'O' que quedan por encender. Cada Grid lo lleva al día al encender y apagar casillas,
+    // así que no hay que recorrer el mapa para saber si está resuelto.
+    long remainingTargets();
+    // Si el robot da la vuelta al salir por un borde; si no, el mapa no tiene bordes
+    default boolean wraps() { return true; }
+    // Sustituye el mapa por otro del mismo tamaño reutilizando la memoria;
+    // devuelve false sin cambiar nada si no es posible
+    default boolean load(String[] lines) { return false; }
+}
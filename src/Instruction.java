@@ -0,0 +1,8 @@
+// Interfaz para instrucciones ejecutables
+interface Instruction {
+    void execute(LightBot bot);
+    // Traduce la instrucción a bytecode
+    void emit(BytecodeCompiler out);
+    // Línea del programa donde empieza la instrucción
+    int getLine();
+}
@@ -0,0 +1,11 @@
+// Salida del código generado hacia el intérprete, o SOLVED al encender la última casilla objetivo
+// (ver LightBot.setStopWhenSolved); son instancias únicas sin traza
+final class JitBailout extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    static final JitBailout INSTANCE = new JitBailout();
+    static final JitBailout SOLVED = new JitBailout();
+
+    private JitBailout() {
+        super(null, null, false, false);
+    }
+}
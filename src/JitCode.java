@@ -0,0 +1,32 @@
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Programa compilado por JitCompiler, compartido por todos los LightBot que ejecutan el mismo Program
+final class JitCode {
+    private final Class<?> generated;
+    private final MethodHandle main;
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger bailouts = new AtomicInteger();
+
+    JitCode(Class<?> generated, MethodHandle main) {
+        this.generated = generated;
+        this.main = main;
+    }
+
+    Class<?> generatedClass() { return generated; }
+    int completedRuns() { return completed.get(); }
+
+    // Deja de usarse si, pasadas las primeras ejecuciones, más de una de cada cuatro acaba
+    // repitiéndose en el intérprete: para esos programas el intérprete es más rápido
+    boolean isUsable() {
+        int b = bailouts.get();
+        return b < 16 || b * 4 <= completed.get();
+    }
+
+    void run(LightBot bot) throws Throwable {
+        main.invokeExact(bot);
+    }
+
+    void completed() { completed.incrementAndGet(); }
+    void bailedOut() { bailouts.incrementAndGet(); }
+}
@@ -0,0 +1,394 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.*;
+
+// Segundo nivel del motor de bytecode: traduce el bytecode optimizado de un programa a una clase de
+// la JVM (escribiendo el fichero .class a mano) y la carga como clase oculta con
+// MethodHandles.Lookup.defineHiddenClass. La clase tiene un método estático main y uno por función,
+// con los parámetros como argumentos int: los movimientos quedan en línea, los REPEAT son bucles de
+// verdad con el contador en una variable local y las llamadas son invokestatic, así que HotSpot
+// compila el propio programa del robot. Los pasos se cuentan llamando a LightBot.jitForward y
+// compañía, que comprueban los límites igual que el intérprete.
+// El código generado solo cubre el caso normal: si hay que detenerse (por pasos, tiempo o
+// cancelación), si se pasa de JIT_MAX_STEPS pasos, si hay una división por cero o si la recursión
+// agota la pila de Java, sale con JitBailout y LightBot repite la ejecución desde el principio con
+// el intérprete, que da el resultado exacto sin volver a empezar a contar el tiempo. Los programas que buscan parámetros por nombre en otros
+// frames o llaman con argumentos de menos no se compilan.
+// La clase oculta no es STRONG: cuando el Program deja de usarse (por ejemplo, al salir de la caché
+// de LightBot.compile) la clase se puede descargar y no llena el metaspace.
+final class JitCompiler {
+    private static final String CLASS_NAME = "LightBotJit";
+    private static final int MAX_CODE = 65535;
+
+    // Opcodes de la JVM que se usan
+    private static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13;
+    private static final int ILOAD = 0x15, ALOAD_0 = 0x2a, ISTORE = 0x36, POP = 0x57;
+    private static final int IADD = 0x60, ISUB = 0x64, IMUL = 0x68, IDIV = 0x6c, IREM = 0x70, INEG = 0x74;
+    private static final int IINC = 0x84, IFLE = 0x9e, IF_ICMPLE = 0xa4, GOTO = 0xa7, RETURN = 0xb1;
+    private static final int INVOKEVIRTUAL = 0xb6, INVOKESTATIC = 0xb8;
+
+    private final Bytecode bc;
+    private final ConstantPool pool = new ConstantPool();
+
+    private JitCompiler(Bytecode bc) {
+        this.bc = bc;
+    }
+
+    // Devuelve null si el programa no se puede compilar
+    static JitCode compile(Bytecode bc) {
+        byte[] bytes = new JitCompiler(bc).generate();
+        if (bytes == null)
+            return null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            MethodHandle main = lookup.findStatic(lookup.lookupClass(), "main",
+                    MethodType.methodType(void.class, LightBot.class));
+            return new JitCode(lookup.lookupClass(), main);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // El intérprete sigue funcionando igual
+            return null;
+        }
+    }
+
+    // Para las comparaciones de las expresiones, que en la JVM necesitarían saltos
+    static int compare(int a, int b, int op) {
+        return BinaryExpr.apply(op, a, b);
+    }
+
+    private byte[] generate() {
+        int n = bc.funcEntry.length;
+        List<byte[]> methods = new ArrayList<>();
+        methods.add(method("main", 0, 0));
+        for (int slot = 0; slot < n; slot++)
+            methods.add(method("f" + slot, bc.funcEntry[slot], bc.funcParams[slot].length));
+        if (methods.contains(null))
+            return null;
+        int thisClass = pool.classRef(CLASS_NAME);
+        int superClass = pool.classRef("java/lang/Object");
+        int codeName = pool.utf8("Code");
+        ByteBuilder out = new ByteBuilder();
+        out.u4(0xCAFEBABE);
+        out.u2(0);
+        out.u2(49);  // Java 5: sin StackMapTable, la JVM infiere los tipos al verificar
+        out.u2(pool.count());
+        out.bytes(pool.bytes());
+        out.u2(0x0030);  // ACC_FINAL | ACC_SUPER
+        out.u2(thisClass);
+        out.u2(superClass);
+        out.u2(0);  // interfaces
+        out.u2(0);  // campos
+        out.u2(methods.size());
+        for (byte[] method : methods) {
+            // Cada método llega como access, name, descriptor, max_stack, max_locals y el código
+            ByteBuilder m = new ByteBuilder();
+            m.bytes(Arrays.copyOf(method, 6));
+            m.u2(1);
+            m.u2(codeName);
+            m.u4(method.length - 10 + 12);
+            m.bytes(Arrays.copyOfRange(method, 6, 10));
+            m.u4(method.length - 10);
+            m.bytes(Arrays.copyOfRange(method, 10, method.length));
+            m.u2(0);  // excepciones
+            m.u2(0);  // atributos
+            out.bytes(m.toArray());
+        }
+        out.u2(0);  // atributos de la clase
+        return out.toArray();
+    }
+
+    // Traduce el tramo de bytecode que empieza en start hasta su RET o HALT. Devuelve access, name,
+    // descriptor, max_stack, max_locals y el código, o null si tiene algo que no se compila.
+    private byte[] method(String name, int start, int nparams) {
+        final int[] code = bc.code;
+        int[] offsets = new int[code.length + 1];
+        Arrays.fill(offsets, -1);
+        List<int[]> jumps = new ArrayList<>();  // {posición del salto, pc de destino}
+        ByteBuilder out = new ByteBuilder();
+        int loopBase = 1 + nparams;  // local 0: el LightBot; luego los parámetros y un contador por bucle
+        int depth = 0, maxDepth = 0, maxStack = 3;
+        int pc = start;
+        translate:
+        while (true) {
+            offsets[pc] = out.size();
+            switch (code[pc]) {
+                case Bytecode.FORWARD: step(out, "jitForward"); pc++; break;
+                case Bytecode.LEFT: step(out, "jitLeft"); pc++; break;
+                case Bytecode.RIGHT: step(out, "jitRight"); pc++; break;
+                case Bytecode.LIGHT: step(out, "jitLight"); pc++; break;
+                case Bytecode.STEP: step(out, "jitStep"); pc++; break;
+                case Bytecode.FORWARDS:
+                    // Sin el código original del tramo: si no caben los pasos se sale al intérprete
+                    out.u1(ALOAD_0);
+                    pushInt(out, code[pc + 1]);
+                    pushInt(out, code[pc + 2]);
+                    out.u1(INVOKEVIRTUAL);
+                    out.u2(pool.methodRef("LightBot", "jitForwards", "(II)V"));
+                    jump(out, jumps, GOTO, code[pc + 3]);
+                    pc = code[pc + 3];
+                    break;
+                case Bytecode.LOOP: {
+                    int local = loopBase + depth;
+                    if (local > 255)
+                        return null;
+                    int stack = operand(out, code[pc + 1], code[pc + 2], nparams);
+                    if (stack < 0)
+                        return null;
+                    maxStack = Math.max(maxStack, stack);
+                    out.u1(ISTORE);
+                    out.u1(local);
+                    out.u1(ILOAD);
+                    out.u1(local);
+                    jump(out, jumps, IFLE, code[pc + 3]);
+                    step(out, "jitStep");
+                    maxDepth = Math.max(maxDepth, ++depth);
+                    pc += 4;
+                    break;
+                }
+                case Bytecode.ENDLOOP: {
+                    int local = loopBase + --depth;
+                    out.u1(ILOAD);
+                    out.u1(local);
+                    out.u1(ICONST_0 + 1);
+                    jump(out, jumps, IF_ICMPLE, pc + 2);
+                    out.u1(IINC);
+                    out.u1(local);
+                    out.u1(-1);
+                    step(out, "jitStep");
+                    jump(out, jumps, GOTO, code[pc + 1]);
+                    pc += 2;
+                    break;
+                }
+                case Bytecode.CALL: {
+                    int slot = code[pc + 1];
+                    int nargs = code[pc + 2];
+                    int params = bc.funcParams[slot].length;
+                    if (nargs < params)
+                        return null;
+                    step(out, "jitStep");
+                    out.u1(ALOAD_0);
+                    StringBuilder desc = new StringBuilder("(LLightBot;");
+                    for (int i = 0; i < nargs; i++) {
+                        int stack = operand(out, code[pc + 3 + 2 * i], code[pc + 4 + 2 * i], nparams);
+                        if (stack < 0)
+                            return null;
+                        maxStack = Math.max(maxStack, 1 + Math.min(i, params) + stack);
+                        // Los argumentos de más se evalúan, como en el intérprete, pero no se pasan
+                        if (i < params)
+                            desc.append('I');
+                        else
+                            out.u1(POP);
+                    }
+                    out.u1(INVOKESTATIC);
+                    out.u2(pool.methodRef(CLASS_NAME, "f" + slot, desc.append(")V").toString()));
+                    pc += 3 + 2 * nargs;
+                    break;
+                }
+                case Bytecode.RET:
+                case Bytecode.HALT:
+                    out.u1(RETURN);
+                    break translate;
+                default:
+                    return null;
+            }
+            if (out.size() > MAX_CODE)
+                return null;
+        }
+        // Los saltos hacia delante se rellenan al final, cuando ya se conocen todas las posiciones
+        for (int[] jump : jumps) {
+            int offset = offsets[jump[1]] - jump[0];
+            if (offsets[jump[1]] < 0 || offset != (short) offset)
+                return null;
+            out.patch2(jump[0] + 1, offset);
+        }
+        StringBuilder desc = new StringBuilder("(LLightBot;");
+        for (int i = 0; i < nparams; i++)
+            desc.append('I');
+        ByteBuilder result = new ByteBuilder();
+        result.u2(0x0008);  // ACC_STATIC
+        result.u2(pool.utf8(name));
+        result.u2(pool.utf8(desc.append(")V").toString()));
+        result.u2(maxStack);
+        result.u2(loopBase + maxDepth);
+        result.bytes(out.toArray());
+        return result.toArray();
+    }
+
+    private void step(ByteBuilder out, String method) {
+        out.u1(ALOAD_0);
+        out.u1(INVOKEVIRTUAL);
+        out.u2(pool.methodRef("LightBot", method, "()V"));
+    }
+
+    private static void jump(ByteBuilder out, List<int[]> jumps, int opcode, int targetPc) {
+        jumps.add(new int[]{out.size(), targetPc});
+        out.u1(opcode);
+        out.u2(0);
+    }
+
+    // Deja el valor de un operando en la pila. Devuelve la altura máxima de pila que usa,
+    // o -1 si busca un nombre en otros frames
+    private int operand(ByteBuilder out, int kind, int value, int nparams) {
+        switch (kind) {
+            case Bytecode.EXPR_CONST:
+                pushInt(out, value);
+                return 1;
+            case Bytecode.EXPR_LOCAL:
+                if (value >= nparams)
+                    return -1;
+                out.u1(ILOAD);
+                out.u1(1 + value);
+                return 1;
+            case Bytecode.EXPR_CODE:
+                break;
+            default:
+                return -1;
+        }
+        final int[] ec = bc.exprCode;
+        int sp = 0, max = 0;
+        for (int p = value; ; ) {
+            int op = ec[p];
+            switch (op) {
+                case Bytecode.E_END:
+                    return max;
+                case Bytecode.E_CONST:
+                    pushInt(out, ec[p + 1]);
+                    max = Math.max(max, ++sp);
+                    p += 2;
+                    break;
+                case Bytecode.E_LOCAL:
+                    if (ec[p + 1] >= nparams)
+                        return -1;
+                    out.u1(ILOAD);
+                    out.u1(1 + ec[p + 1]);
+                    max = Math.max(max, ++sp);
+                    p += 2;
+                    break;
+                case Bytecode.E_NEG:
+                    out.u1(INEG);
+                    p++;
+                    break;
+                case Bytecode.E_ADD: out.u1(IADD); sp--; p++; break;
+                case Bytecode.E_SUB: out.u1(ISUB); sp--; p++; break;
+                case Bytecode.E_MUL: out.u1(IMUL); sp--; p++; break;
+                case Bytecode.E_DIV: out.u1(IDIV); sp--; p++; break;
+                case Bytecode.E_MOD: out.u1(IREM); sp--; p++; break;
+                case Bytecode.E_VAR:
+                    return -1;
+                default:
+                    // Comparaciones: compare(a, b, op)
+                    pushInt(out, op);
+                    max = Math.max(max, sp + 1);
+                    out.u1(INVOKESTATIC);
+                    out.u2(pool.methodRef("JitCompiler", "compare", "(III)I"));
+                    sp--;
+                    p++;
+            }
+        }
+    }
+
+    private void pushInt(ByteBuilder out, int value) {
+        if (value >= -1 && value <= 5) {
+            out.u1(ICONST_0 + value);
+        } else if (value == (byte) value) {
+            out.u1(BIPUSH);
+            out.u1(value);
+        } else if (value == (short) value) {
+            out.u1(SIPUSH);
+            out.u2(value);
+        } else {
+            out.u1(LDC_W);
+            out.u2(pool.integer(value));
+        }
+    }
+
+    // Tabla de constantes del fichero .class; cada constante se guarda una sola vez
+    private static final class ConstantPool {
+        private final ByteBuilder bytes = new ByteBuilder();
+        private final Map<String, Integer> indices = new HashMap<>();
+        private int count = 1;
+
+        private int add(String key, ByteBuilder entry) {
+            Integer index = indices.get(key);
+            if (index != null)
+                return index;
+            bytes.bytes(entry.toArray());
+            indices.put(key, count);
+            return count++;
+        }
+
+        int utf8(String text) {
+            ByteBuilder entry = new ByteBuilder();
+            entry.u1(1);
+            byte[] utf = text.getBytes(java.nio.charset.StandardCharsets.UTF_8);  // solo ASCII
+            entry.u2(utf.length);
+            entry.bytes(utf);
+            return add("U" + text, entry);
+        }
+
+        int classRef(String name) {
+            ByteBuilder entry = new ByteBuilder();
+            entry.u1(7);
+            entry.u2(utf8(name));
+            return add("C" + name, entry);
+        }
+
+        int methodRef(String owner, String name, String desc) {
+            int ownerIndex = classRef(owner);
+            ByteBuilder nameAndType = new ByteBuilder();
+            nameAndType.u1(12);
+            nameAndType.u2(utf8(name));
+            nameAndType.u2(utf8(desc));
+            int nat = add("N" + name + desc, nameAndType);
+            ByteBuilder entry = new ByteBuilder();
+            entry.u1(10);
+            entry.u2(ownerIndex);
+            entry.u2(nat);
+            return add("M" + owner + "." + name + desc, entry);
+        }
+
+        int integer(int value) {
+            ByteBuilder entry = new ByteBuilder();
+            entry.u1(3);
+            entry.u4(value);
+            return add("I" + value, entry);
+        }
+
+        int count() { return count; }
+        byte[] bytes() { return bytes.toArray(); }
+    }
+
+    private static final class ByteBuilder {
+        private byte[] data = new byte[64];
+        private int size;
+
+        void u1(int v) {
+            if (size == data.length)
+                data = Arrays.copyOf(data, size * 2);
+            data[size++] = (byte) v;
+        }
+
+        void u2(int v) {
+            u1(v >>> 8);
+            u1(v);
+        }
+
+        void u4(int v) {
+            u2(v >>> 16);
+            u2(v);
+        }
+
+        void bytes(byte[] b) {
+            for (byte x : b)
+                u1(x);
+        }
+
+        void patch2(int pos, int v) {
+            data[pos] = (byte) (v >>> 8);
+            data[pos + 1] = (byte) v;
+        }
+
+        int size() { return size; }
+        byte[] toArray() { return Arrays.copyOf(data, size); }
+    }
+}
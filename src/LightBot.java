@@ -1,290 +1,1156 @@
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
-// Interfaz para instrucciones ejecutables
-interface Instruction {
-    void execute(LightBot bot);
-}
-// Representa una función (con o sin parámetros)
-class UserFunction {
-    private final String name;
-    private final List<String> paramNames; // Nombres de los parámetros
-    private final List<Instruction> instructions;
-    public UserFunction(String name, List<String> paramNames, List<Instruction> instructions) {
-        this.name = name;
-        this.paramNames = paramNames;
-        this.instructions = instructions;
-    }
-    public String getName() { return name; }
-    public List<String> getParamNames() { return paramNames; }
-    public List<Instruction> getInstructions() { return instructions; }
-}
-// Instrucción simple: FORWARD, LEFT, RIGHT, LIGHT
-class SimpleInstruction implements Instruction {
-    private final String cmd;
-    public SimpleInstruction(String cmd) { this.cmd = cmd; }
-    public void execute(LightBot bot) { bot.doInstruction(cmd); }
-}
-
-// Llamada a función con parametros
-class UserFunctionCall implements Instruction {
-    private final String funcName;
-    private final List<String> argExprs;
-    public UserFunctionCall(String funcName, List<String> argExprs) {
-        this.funcName = funcName;
-        this.argExprs = argExprs;
-    }
-
-    public void execute(LightBot bot) {
-        UserFunction func = bot.getFunction(funcName);
-        if (func == null) return;
-        List<Integer> argValues = new ArrayList<>();
-        for (String expr : argExprs)
-            argValues.add(bot.evalExpr(expr));
-        bot.pushFrame(func.getParamNames(), argValues);
-        for (Instruction instr : func.getInstructions())
-            instr.execute(bot);
-        bot.popFrame();
-    }
-}
-
-// Bloque REPEAT parametrizado (REPEAT N)
-class ParamRepeatBlock implements Instruction {
-    private final String timesExpr;
-    private final List<Instruction> instructions;
-    public ParamRepeatBlock(String timesExpr, List<Instruction> instructions) {
-        this.timesExpr = timesExpr;
-        this.instructions = instructions;
-    }
-
-    public void execute(LightBot bot) {
-        int n = bot.evalExpr(timesExpr);
-        for (int i = 0; i < n; i++)
-            for (Instruction instr : instructions)
-                instr.execute(bot);
-    }
-
-}
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
 public class LightBot {
-    private char[][] initialMap;
-    private char[][] map;
+    // Motor de ejecución: TREE recorre el árbol de instrucciones (modo de referencia),
+    // BYTECODE ejecuta el programa compilado a un array de enteros
+    public enum Engine { TREE, BYTECODE }
+    // Almacenamiento del mapa: CHARS usa matrices de caracteres,
+    // BITS usa planos de bits con reset() proporcional a las casillas encendidas,
+    // SPARSE es un mundo sin bordes (ver SparseGrid): el robot no da la vuelta y fuera del mapa todo es '.'
+    public enum Backend { CHARS, BITS, SPARSE }
+
+    private final Grid grid;
     private int width, height;
+    private final boolean wraps;  // false si el mapa no tiene bordes
     private int startX, startY;
     private int robotX, robotY;
     private int startDir, robotDir;
-    private final Map<String, UserFunction> functions = new HashMap<>();
-    private final Deque<Map<String,Integer>> locals = new ArrayDeque<>();
+    private int lightChanges;  // número de casillas encendidas, solo crece durante una ejecución
+    // Tablas de movimiento (ver MoveTable). Crearlas cuesta como cargar el mapa, así que se crean la
+    // primera vez que hacen falta (un tramo de FORWARD fusionado, un resumen de función) o cuando el
+    // robot ya ha dado suficientes FORWARD sueltos para que compense
+    private MoveTable moveTable;  // null mientras no se han creado, o si el mapa no tiene bordes o es demasiado grande
+    private MoveTable spareTable; // tablas del mapa anterior, para rellenarlas sin crear arrays nuevos
+    private boolean tableBuilt;   // ya se han creado (o descartado) para el mapa actual
+    private int plainForwards;    // FORWARD sin tablas que faltan para crearlas
+    private SummaryCache summaries;  // se crea con la primera llamada que se puede resumir
+    private Map<String, UserFunction> functions = Collections.emptyMap();
     private static final int[] DX = {1, 0, -1, 0};  // Derecha, Abajo, Izquierda, Arriba
     private static final int[] DY = {0, 1, 0, -1};
+    // Caché LRU de programas ya compilados, indexada por el texto fuente
+    private static final int PROGRAM_CACHE_SIZE = 1024;
+    private static final Map<List<String>, Program> programCache =
+            new LinkedHashMap<List<String>, Program>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<List<String>, Program> eldest) {
+                    return size() > PROGRAM_CACHE_SIZE;
+                }
+            };
+    // Un ReentrantLock en lugar de synchronized para no bloquear el hilo portador de los hilos virtuales
+    private static final ReentrantLock programCacheLock = new ReentrantLock();
+    private Engine engine = Engine.BYTECODE;
+    // Pila de frames de las funciones en ejecución, compartida por los dos motores:
+    // el frame f tiene los parámetros frameParams[f] (símbolos) con valores a partir de frameValues[frameBase[f]]
+    private int[][] frameParams = new int[16][];
+    private int[] frameBase = new int[16];
+    private int[] frameValues = new int[16];
+    private int frameTop, valueTop;
+    // Pilas del intérprete de bytecode, se reutilizan entre ejecuciones.
+    // Cada bucle activo ocupa LOOP_FRAME posiciones de loopStack:
+    // [vueltas restantes, vuelta actual, vuelta guardada, límite, x, y, dir, encendidos]
+    private static final int LOOP_FRAME = 8;
+    private int[] loopStack = new int[16 * LOOP_FRAME];
+    private long[] loopSteps = new long[16];  // pasos al guardar el estado de cada bucle
+    private int[] returnStack = new int[16];
+    private int[] exprStack = new int[16];
+    // Estado de la ejecución en curso o detenida: pasos dados, siguiente instrucción y bucles activos
+    private long steps;
+    private int pc, loopTop;
+    private long skippedSteps;  // pasos adelantados en bucles o con resúmenes, para Program.profile
+    // Programa de la última ejecución, el bytecode con el que se ejecutó y si se detuvo antes de acabar (ver resume)
+    private Program program;
+    private Bytecode bytecode;
+    private boolean resumable;
+    // Límites de la ejecución en curso
+    private static final int CHECK_INTERVAL = 1024;
+    private static final long JIT_MAX_STEPS = 1L << 24;
+    // Ejecuciones de un programa con el intérprete antes de compilarlo (ver Program.profile)
+    private static volatile int jitThreshold = 1000;
+    private long maxSteps = Long.MAX_VALUE;
+    private long nextCheck;
+    private boolean hasDeadline;
+    private long deadline;
+    private CancellationToken cancellation;
+    // Métricas del intérprete de bytecode; null si están desactivadas
+    private ExecutionMetrics metrics;
+    // Traza en grabación; null si no se está grabando
+    private TraceRecorder trace;
+    // Si la ejecución se detiene al encender la última casilla objetivo (ver setStopWhenSolved)
+    private boolean stopWhenSolved;
+    // Memoria máxima para las pilas del intérprete; solo se comprueba al hacerlas crecer
+    private long callStackBudget = 64L << 20;
 
     public LightBot(String[] lines) {
         this(String.join("\n", lines));
     }
 
     public LightBot(String mapString) {
-        String[] lines = mapString.split("\n");
-        height = lines.length;
-        width = lines[0].length();
-        initialMap = new char[height][width];
-        map = new char[height][width];
-        startX = startY = -1;
-        startDir = 0;
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                char c = lines[y].charAt(x);
-                initialMap[y][x] = c;
-                map[y][x] = c;
-                if ("RLUD".indexOf(c) > -1) {
-                    startX = x;
-                    startY = y;
-                    switch (c) {
-                        case 'R': startDir = 0; break;
-                        case 'D': startDir = 1; break;
-                        case 'L': startDir = 2; break;
-                        case 'U': startDir = 3; break;
-                    }
-                    initialMap[y][x] = '.';
-                    map[y][x] = '.';
-                }
+        this(mapString, Backend.CHARS);
+    }
+
+    public LightBot(String[] lines, Backend backend) {
+        this(String.join("\n", lines), backend);
+    }
+
+    public LightBot(String mapString, Backend backend) {
+        this(mapString.split("\n"), backend, null);
+    }
+
+    // Mapa sin robot y posición inicial explícita (para reconstruir el estado de una traza).
+    // Usa BitGrid porque su reset() solo cuesta las casillas encendidas.
+    LightBot(String[] lines, int x, int y, int dir) {
+        this(lines, Backend.BITS, new int[]{x, y, dir});
+    }
+
+    LightBot(String[] lines, Backend backend, int[] start) {
+        this(createGrid(lines, backend), start != null ? start : findRobot(lines));
+    }
+
+    private static Grid createGrid(String[] lines, Backend backend) {
+        switch (backend) {
+            case BITS: return new BitGrid(lines, lines[0].length());
+            case SPARSE: return new SparseGrid(lines, lines[0].length());
+            default: return new CharGrid(lines, lines[0].length());
+        }
+    }
+
+    // Mapa leído de un fichero proyectado en memoria (ver MappedGrid): el fichero no se copia
+    // y las casillas encendidas se guardan aparte, así que sirve para mapas enormes
+    public LightBot(Path mapFile) throws IOException {
+        this(new MappedGrid(mapFile));
+    }
+
+    private LightBot(MappedGrid grid) {
+        this(grid, grid.robot());
+    }
+
+    // start: x, y y dirección iniciales del robot
+    private LightBot(Grid grid, int[] start) {
+        this.grid = grid;
+        width = grid.width();
+        height = grid.height();
+        wraps = grid.wraps();
+        startX = start[0];
+        startY = start[1];
+        startDir = start[2];
+        discardMoveTable();
+        reset();
+    }
+
+    // Posición y dirección del robot: la última R, L, U o D del mapa
+    private static int[] findRobot(String[] lines) {
+        int[] robot = null;
+        for (int y = 0; y < lines.length; y++) {
+            for (int x = 0; x < lines[0].length(); x++) {
+                int dir = "RDLU".indexOf(lines[y].charAt(x));
+                if (dir > -1)
+                    robot = new int[]{x, y, dir};
             }
         }
-        if (startX == -1 || startY == -1)
+        if (robot == null)
             throw new IllegalArgumentException("No s'ha trobat el robot!");
+        return robot;
+    }
+
+    // Cambia a otro mapa del mismo tamaño reutilizando la memoria del mapa y de las pilas
+    // (ver GradingEngine). Devuelve false sin cambiar nada si el Grid no admite el cambio.
+    boolean load(String[] lines) {
+        int[] start = findRobot(lines);
+        if (!grid.load(lines))
+            return false;
+        startX = start[0];
+        startY = start[1];
+        startDir = start[2];
+        program = null;
+        functions = Collections.emptyMap();
+        discardMoveTable();
         reset();
+        return true;
     }
 
     public void reset() {
-        for (int y = 0; y < height; y++)
-            for (int x = 0; x < width; x++)
-                map[y][x] = initialMap[y][x];
+        grid.reset();
         robotX = startX;
         robotY = startY;
         robotDir = startDir;
-        locals.clear();
+        lightChanges = 0;
+        frameTop = valueTop = 0;
+        resumable = false;
     }
 
     public void runProgram(String[] programLines) {
-        List<String> code = Arrays.asList(programLines);
-        functions.clear();
-        locals.clear();
-        parseFunctions(code);
-        locals.clear();
-        List<Instruction> mainInstructions = parseInstructions(code, 0, code.size());
-        for (Instruction instr : mainInstructions) {
-            instr.execute(this);
+        run(compile(programLines));
+    }
+
+    // Analiza y compila un programa. Si el mismo texto ya se compiló hace poco
+    // se devuelve el Program guardado en la caché sin volver a analizarlo.
+    public static Program compile(String[] programLines) {
+        List<String> key = Arrays.asList(programLines.clone());
+        programCacheLock.lock();
+        try {
+            Program cached = programCache.get(key);
+            if (cached != null)
+                return cached;
+        } finally {
+            programCacheLock.unlock();
+        }
+        Program program = Program.parse(programLines);
+        programCacheLock.lock();
+        try {
+            programCache.put(key, program);
+        } finally {
+            programCacheLock.unlock();
         }
+        return program;
     }
 
-    // Analiza las funciones primero
-    private void parseFunctions(List<String> code) {
-        for (int i = 0; i < code.size(); i++) {
-            String line = code.get(i).trim();
-            if (line.startsWith("FUNCTION ")) {
-                String rest = line.substring(9).trim();
-                String funcName;
-                List<String> paramNames = new ArrayList<>();
-                int parIdx = rest.indexOf('(');
-                if (parIdx >= 0 && rest.endsWith(")")) {
-                    funcName = rest.substring(0, parIdx).trim();
-                    String paramList = rest.substring(parIdx + 1, rest.length() - 1).trim();
-                    if (!paramList.isEmpty())
-                        for (String p : paramList.split(","))
-                            paramNames.add(p.trim());
-                } else {
-                    funcName = rest;
-                }
-                int start = i + 1;
-                int end = start;
-                while (end < code.size() && !code.get(end).trim().equals("ENDFUNCTION"))
-                    end++;
-                List<Instruction> funcInstructions = parseInstructions(code, start, end);
-                functions.put(funcName, new UserFunction(funcName, paramNames, funcInstructions));
-                i = end;  // Avanza al final de la función
-            }
+    public RunResult runProgram(String[] programLines, RunLimits limits) {
+        return run(compile(programLines), limits);
+    }
+
+    // Ejecuta un programa ya compilado; el programa no se modifica y puede compartirse
+    public void run(Program program) {
+        run(program, RunLimits.NONE);
+    }
+
+    // Ejecuta un programa con un máximo de pasos, un tiempo máximo y/o un token de cancelación.
+    // En lugar de lanzar una excepción, indica en el resultado si terminó o por qué se detuvo.
+    // El motor de bytecode usa la versión optimizada del programa (ver ProgramOptimizer), salvo con
+    // las métricas activadas, que cuentan las llamadas y los opcodes del programa tal como está escrito.
+    // Los programas que se ejecutan muchas veces pasan a código de la JVM (ver JitCompiler) mientras
+    // no haya métricas ni traza; el resultado es el mismo que con el intérprete.
+    public RunResult run(Program program, RunLimits limits) {
+        Bytecode bc = null;
+        if (engine == Engine.BYTECODE)
+            bc = metrics == null ? program.getOptimizedBytecode() : program.getBytecode();
+        if (bc == null || metrics != null || trace != null)
+            return run(program, bc, limits);
+        // El tiempo y los pasos se cuentan una sola vez aunque el JIT salga y repita el intérprete
+        startLimits(limits);
+        JitCode jit = program.getJitCode();
+        if (jit != null && jit.isUsable()) {
+            RunResult result = runJit(program, jit);
+            if (result != null)
+                return result;
         }
+        skippedSteps = 0;
+        RunResult result = start(program, bc);
+        program.profile(result.getSteps(), skippedSteps);
+        return result;
     }
 
-    // Parser de instrucciones
-    private List<Instruction> parseInstructions(List<String> code, int from, int to) {
-        List<Instruction> result = new ArrayList<>();
-        for (int i = from; i < to; i++) {
-            String cmd = code.get(i).trim();
-            if (cmd.isEmpty()) continue;
-            if (cmd.startsWith("FUNCTION")) {
-                while (i < to && !code.get(i).trim().equals("ENDFUNCTION")) i++;
-                continue;
+    // Ejecuta el código compilado. Devuelve null si ha salido antes de acabar (JitBailout): el
+    // robot y el mapa vuelven a como estaban para repetir la ejecución con el intérprete, que sigue
+    // con el mismo plazo: si ya ha vencido se detiene en el primer paso y se puede continuar con resume.
+    private RunResult runJit(Program program, JitCode jit) {
+        int x = robotX, y = robotY, dir = robotDir, lights = lightChanges;
+        int lit = grid.litMark();
+        functions = program.getFunctions();
+        frameTop = valueTop = 0;
+        steps = 0;
+        pc = loopTop = 0;
+        this.program = program;
+        bytecode = program.getOptimizedBytecode();
+        resumable = false;
+        try {
+            jit.run(this);
+            jit.completed();
+            return new RunResult(RunResult.Status.COMPLETED, steps);
+        } catch (JitBailout e) {
+            if (e == JitBailout.SOLVED) {
+                jit.completed();
+                return new RunResult(RunResult.Status.SOLVED, steps);
             }
-            if (cmd.startsWith("REPEAT ")) {
-                String countExpr = cmd.substring(7).trim();
-                int depth = 1;
-                int blockStart = ++i;
-                while (i < to && depth > 0) {
-                    String line = code.get(i).trim();
-                    if (line.startsWith("REPEAT ")) depth++;
-                    else if (line.equals("ENDREPEAT")) depth--;
-                    if (depth > 0) i++;
+            jit.bailedOut();
+        } catch (ArithmeticException | StackOverflowError e) {
+            // División por cero o recursión demasiado profunda para la pila de Java
+            jit.bailedOut();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+        grid.undoLit(lit);
+        lightChanges = lights;
+        robotX = x;
+        robotY = y;
+        robotDir = dir;
+        nextCheck = 0;
+        return null;
+    }
+
+    // Ejecuta program con un bytecode concreto, o con el motor de árbol si bc es null
+    RunResult run(Program program, Bytecode bc, RunLimits limits) {
+        startLimits(limits);
+        return start(program, bc);
+    }
+
+    // Empieza la ejecución desde el principio con los límites ya en marcha
+    private RunResult start(Program program, Bytecode bc) {
+        functions = program.getFunctions();
+        frameTop = valueTop = 0;
+        steps = 0;
+        pc = loopTop = 0;
+        this.program = program;
+        bytecode = bc;
+        resumable = false;
+        return execute(bc);
+    }
+
+    // Continúa la última ejecución si se detuvo por un límite. Los pasos se siguen contando desde
+    // donde se quedó, así que el máximo de pasos de limits se refiere al total de la ejecución.
+    // Solo el motor de bytecode guarda el punto en el que se detuvo.
+    public RunResult resume(RunLimits limits) {
+        if (!resumable)
+            throw new IllegalStateException("No hay ninguna ejecución detenida que continuar");
+        resumable = false;
+        startLimits(limits);
+        return execute(bytecode);
+    }
+
+    // Indica si la última ejecución se detuvo antes de acabar y puede continuar con resume
+    public boolean canResume() { return resumable; }
+
+    // Continúa la ejecución detenida con otra versión del bytecode con el que empezó
+    // (las copias con puntos de parada de Debugger), siempre con el motor de bytecode
+    RunResult resume(Bytecode bc, RunLimits limits) {
+        if (!resumable)
+            throw new IllegalStateException("No hay ninguna ejecución detenida que continuar");
+        resumable = false;
+        startLimits(limits);
+        return execute(bc);
+    }
+
+    // Estado de la ejecución detenida, para Debugger
+    Bytecode currentBytecode() { return bytecode; }
+    int currentPc() { return pc; }
+    long currentSteps() { return steps; }
+    int callDepth() { return frameTop; }
+    int[] frameParamSymbols(int frame) { return frameParams[frame]; }
+    int frameValue(int frame, int i) { return frameValues[frameBase[frame] + i]; }
+
+    // bc es el bytecode que se ejecuta, o null para el motor de árbol
+    private RunResult execute(Bytecode bc) {
+        RunResult.Status status;
+        if (bc == null) {
+            try {
+                for (Instruction instr : program.getMainInstructions()) {
+                    instr.execute(this);
                 }
-                List<Instruction> repeatBlock = parseInstructions(code, blockStart, i);
-                result.add(new ParamRepeatBlock(countExpr, repeatBlock));
-                continue;
+                status = RunResult.Status.COMPLETED;
+            } catch (StopRun e) {
+                status = e.status;
+            } catch (StackOverflowError e) {
+                // El motor de árbol usa la pila de Java: se informa igual que al agotar el presupuesto
+                throw new CallDepthExceededException(frameTop, callStackBudget);
             }
-            if (cmd.equals("ENDREPEAT") || cmd.equals("ENDFUNCTION"))
-                continue;
-            if (cmd.startsWith("CALL ")) {
-                String tail = cmd.substring(5).trim();
-                String funcName;
-                List<String> args = new ArrayList<>();
-                int parIdx = tail.indexOf('(');
-                if (parIdx >= 0 && tail.endsWith(")")) {
-                    funcName = tail.substring(0, parIdx).trim();
-                    String argList = tail.substring(parIdx+1, tail.length()-1).trim();
-                    if (!argList.isEmpty())
-                        for (String arg : argList.split(",")) args.add(arg.trim());
-                } else {
-                    funcName = tail;
+        } else {
+            status = runBytecode(bc);
+            resumable = status != RunResult.Status.COMPLETED && status != RunResult.Status.SOLVED;
+        }
+        return new RunResult(status, steps);
+    }
+
+    // Ejecuta el mismo programa sobre muchos mapas en paralelo.
+    // El programa se analiza y compila una sola vez; cada mapa usa su propia instancia de LightBot,
+    // así que el estado mutable nunca se comparte entre hilos.
+    // Los resultados están en el mismo orden que los mapas.
+    public static List<BatchResult> runBatch(String[] programLines, Collection<String[]> maps) {
+        Program program = compile(programLines);
+        return maps.parallelStream()
+                .map(lines -> {
+                    LightBot bot = new LightBot(lines);
+                    bot.run(program);
+                    return new BatchResult(bot.getRobotPosition(), bot.getMap());
+                })
+                .collect(Collectors.toList());
+    }
+
+    public Engine getEngine() { return engine; }
+
+    // Ejecuciones de cada programa con el intérprete antes de compilarlo a código de la JVM;
+    // Integer.MAX_VALUE no lo compila nunca
+    public static int getJitThreshold() { return jitThreshold; }
+
+    public static void setJitThreshold(int runs) {
+        if (runs < 1)
+            throw new IllegalArgumentException("El umbral tiene que ser al menos 1: " + runs);
+        jitThreshold = runs;
+    }
+
+    public void setEngine(Engine engine) { this.engine = engine; }
+
+    // Activa o desactiva las métricas del motor de bytecode. Al activarlas se empiezan a contar desde cero.
+    // Desactivadas no cuestan nada en el bucle de ejecución: cada punto de medida es una
+    // comprobación de null sobre una variable local que nunca se cumple, y el JIT la descarta.
+    public void setMetricsEnabled(boolean enabled) {
+        metrics = enabled ? new ExecutionMetrics() : null;
+    }
+
+    public boolean isMetricsEnabled() { return metrics != null; }
+
+    // Métricas acumuladas desde que se activaron, o null si están desactivadas
+    public MetricsSnapshot getMetrics() {
+        return metrics == null ? null : metrics.snapshot();
+    }
+
+    // Empieza a grabar una traza binaria de todos los pasos desde el estado actual del robot y del mapa.
+    // Mientras se graba, el motor de bytecode no salta vueltas de bucle con el avance rápido.
+    public void startTrace() {
+        if (!wraps)
+            throw new IllegalStateException("Las trazas solo se pueden grabar en mapas con bordes");
+        trace = new TraceRecorder(getMap(), robotX, robotY, robotDir);
+    }
+
+    // Termina la grabación y devuelve la traza, o null si no se estaba grabando
+    public ExecutionTrace stopTrace() {
+        if (trace == null)
+            return null;
+        ExecutionTrace result = trace.finish();
+        trace = null;
+        return result;
+    }
+
+    // Guarda el estado actual: robot, casillas encendidas y, si la última ejecución se detuvo
+    // antes de acabar, el punto del programa y sus pilas. Las casillas encendidas se comparten
+    // con el mapa (ver LitNode): solo se crean nodos para las encendidas desde la instantánea anterior.
+    public LightBotSnapshot snapshot() {
+        if (!resumable)
+            return new LightBotSnapshot(this, robotX, robotY, robotDir, lightChanges, grid.litHead());
+        return new LightBotSnapshot(this, robotX, robotY, robotDir, lightChanges, grid.litHead(),
+                program, bytecode, steps, pc,
+                Arrays.copyOf(loopStack, loopTop), Arrays.copyOf(loopSteps, loopTop / LOOP_FRAME),
+                Arrays.copyOf(returnStack, frameTop), Arrays.copyOf(frameParams, frameTop),
+                Arrays.copyOf(frameBase, frameTop), Arrays.copyOf(frameValues, valueTop));
+    }
+
+    // Vuelve al estado de una instantánea de este mismo LightBot. Solo cuesta las casillas
+    // encendidas que difieren entre el estado actual y el guardado, más las pilas guardadas.
+    public void restore(LightBotSnapshot snap) {
+        if (snap.owner != this)
+            throw new IllegalArgumentException("La instantánea es de otro LightBot");
+        grid.restoreLit(snap.litHead);
+        robotX = snap.robotX;
+        robotY = snap.robotY;
+        robotDir = snap.robotDir;
+        lightChanges = snap.lightChanges;
+        resumable = snap.program != null;
+        if (!resumable) {
+            frameTop = valueTop = 0;
+            return;
+        }
+        program = snap.program;
+        bytecode = snap.bytecode;
+        functions = program.getFunctions();
+        steps = snap.steps;
+        pc = snap.pc;
+        loopTop = snap.loopStack.length;
+        frameTop = snap.returnStack.length;
+        valueTop = snap.frameValues.length;
+        while (loopStack.length < loopTop)
+            growLoopStack(frameTop);
+        while (returnStack.length < frameTop)
+            growReturnStack(frameTop);
+        while (frameBase.length < frameTop)
+            growFrames(frameTop);
+        if (frameValues.length < valueTop)
+            growValues(valueTop, frameTop);
+        System.arraycopy(snap.loopStack, 0, loopStack, 0, loopTop);
+        System.arraycopy(snap.loopSteps, 0, loopSteps, 0, snap.loopSteps.length);
+        System.arraycopy(snap.returnStack, 0, returnStack, 0, frameTop);
+        System.arraycopy(snap.frameParams, 0, frameParams, 0, frameTop);
+        System.arraycopy(snap.frameBase, 0, frameBase, 0, frameTop);
+        System.arraycopy(snap.frameValues, 0, frameValues, 0, valueTop);
+    }
+
+    public long getCallStackBudget() { return callStackBudget; }
+
+    // Límite en bytes de las pilas de llamadas, bucles y parámetros. Con el motor de bytecode
+    // la profundidad de recursión solo depende de este valor; al superarlo se lanza
+    // CallDepthExceededException y el hilo sigue vivo.
+    public void setCallStackBudget(long bytes) { this.callStackBudget = bytes; }
+
+    // Bucle de despacho del bytecode: no reserva memoria por paso salvo para crecer las pilas.
+    // Antes de cada paso se compara el contador con nextCheck; los límites de tiempo y
+    // cancelación solo se consultan cada CHECK_INTERVAL pasos. Si la ejecución se detiene,
+    // pc apunta a la instrucción que aún no se ha ejecutado.
+    private RunResult.Status runBytecode(Bytecode bc) {
+        final int[] code = bc.code;
+        if (exprStack.length < bc.maxExprDepth)
+            exprStack = new int[bc.maxExprDepth];
+        // Se empieza en el punto guardado: el inicio del programa o donde se detuvo la ejecución anterior
+        int pc = this.pc;
+        int loopTop = this.loopTop;   // posiciones usadas en loopStack
+        int callTop = frameTop;       // número de llamadas activas (y de frames)
+        int valueTop = this.valueTop; // posiciones usadas en frameValues
+        long steps = this.steps;
+        RunResult.Status stop = null;
+        final ExecutionMetrics m = metrics;
+        final int lightsBefore = lightChanges;
+        final TraceRecorder t = trace;
+        // Con una traza activa o en el depurador no se salta nada: cada paso tiene que verse
+        final boolean fastForward = t == null && !bc.debug;
+        // Los tramos de FORWARD fusionados tampoco, y con métricas se cuenta cada FORWARD
+        final boolean fuse = fastForward && m == null;
+        if (m != null)
+            m.begin(bc);
+        run:
+        while (true) {
+            if (m != null)
+                m.opCounts[code[pc]]++;
+            switch (code[pc]) {
+                case Bytecode.FORWARD:
+                    if (steps >= nextCheck && (stop = limitReached(steps)) != null) break run;
+                    steps++;
+                    boolean moved = forward();
+                    if (m != null && !moved)
+                        m.blockedForwards++;
+                    if (t != null)
+                        t.record(moved ? TraceRecorder.FORWARD : TraceRecorder.FORWARD_BLOCKED, robotX, robotY, robotDir);
+                    pc++;
+                    break;
+                case Bytecode.LEFT:
+                    if (steps >= nextCheck && (stop = limitReached(steps)) != null) break run;
+                    steps++;
+                    robotDir = (robotDir + 3) % 4;
+                    if (t != null)
+                        t.record(TraceRecorder.LEFT, robotX, robotY, robotDir);
+                    pc++;
+                    break;
+                case Bytecode.RIGHT:
+                    if (steps >= nextCheck && (stop = limitReached(steps)) != null) break run;
+                    steps++;
+                    robotDir = (robotDir + 1) % 4;
+                    if (t != null)
+                        t.record(TraceRecorder.RIGHT, robotX, robotY, robotDir);
+                    pc++;
+                    break;
+                case Bytecode.LIGHT: {
+                    if (steps >= nextCheck && (stop = limitReached(steps)) != null) break run;
+                    steps++;
+                    long targets = grid.remainingTargets();
+                    boolean lit = light();
+                    if (t != null)
+                        t.record(lit ? TraceRecorder.LIGHT : TraceRecorder.LIGHT_NOOP, robotX, robotY, robotDir);
+                    pc++;
+                    if (solvedBy(targets)) {
+                        stop = RunResult.Status.SOLVED;
+                        break run;
+                    }
+                    break;
+                }
+                case Bytecode.FORWARDS:
+                    if (steps >= nextCheck && (stop = limitReached(steps)) != null) break run;
+                    // El tramo entero o nada; si no caben sus pasos se sigue por el código original
+                    if (fuse && maxSteps - steps >= code[pc + 2]) {
+                        steps += code[pc + 2];
+                        forward(code[pc + 1]);
+                        pc = code[pc + 3];
+                    } else {
+                        pc += 4;
+                    }
+                    break;
+                case Bytecode.STEP:
+                    if (steps >= nextCheck && (stop = limitReached(steps)) != null) break run;
+                    steps++;
+                    if (t != null)
+                        t.record(TraceRecorder.OTHER, robotX, robotY, robotDir);
+                    pc++;
+                    break;
+                case Bytecode.LOOP: {
+                    int n = evalOperand(bc, code[pc + 1], code[pc + 2], callTop);
+                    if (n <= 0) {
+                        pc = code[pc + 3];
+                    } else {
+                        if (steps >= nextCheck && (stop = limitReached(steps)) != null) break run;
+                        steps++;
+                        if (m != null)
+                            m.loopIterations++;
+                        if (t != null)
+                            t.record(TraceRecorder.OTHER, robotX, robotY, robotDir);
+                        if (loopTop == loopStack.length)
+                            growLoopStack(callTop);
+                        int[] ls = loopStack;
+                        ls[loopTop] = n;
+                        ls[loopTop + 1] = 0;
+                        saveLoopState(ls, loopTop, 0, 1, steps);
+                        loopTop += LOOP_FRAME;
+                        pc += 4;
+                    }
+                    break;
                 }
-                result.add(new UserFunctionCall(funcName, args));
-                continue;
+                case Bytecode.ENDLOOP: {
+                    int[] ls = loopStack;
+                    int b = loopTop - LOOP_FRAME;
+                    if (ls[b] > 1) {
+                        if (steps >= nextCheck && (stop = limitReached(steps)) != null) break run;
+                        steps++;
+                        if (m != null)
+                            m.loopIterations++;
+                        if (t != null)
+                            t.record(TraceRecorder.OTHER, robotX, robotY, robotDir);
+                        ls[b]--;
+                        int iter = ++ls[b + 1];
+                        if (ls[b + 7] != lightChanges) {
+                            // El mapa ha cambiado: volvemos a empezar la detección de ciclos
+                            saveLoopState(ls, b, iter, 1, steps);
+                        } else if (fastForward && ls[b + 4] == robotX && ls[b + 5] == robotY && ls[b + 6] == robotDir) {
+                            // Mismo estado que al inicio de la vuelta guardada y ninguna luz nueva:
+                            // el cuerpo se repite con periodo iter - vuelta guardada y podemos saltar
+                            // todos los periodos completos que quedan (sin pasarnos del máximo de pasos).
+                            int period = iter - ls[b + 2];
+                            long periodSteps = steps - loopSteps[b / LOOP_FRAME];
+                            long skip = Math.min(ls[b] / period, (maxSteps - steps) / periodSteps);
+                            ls[b] -= (int) skip * period;
+                            steps += skip * periodSteps;
+                            skippedSteps += skip * periodSteps;
+                            if (m != null) {
+                                m.loopIterations += skip * period;
+                                m.fastForwardedIterations += skip * period;
+                            }
+                            // El periodo siguiente se mide desde aquí: si el máximo de pasos ha cortado el
+                            // salto y la ejecución continúa con resume, la vuelta y los pasos guardados
+                            // tienen que ser los de ahora y no los de antes de saltar
+                            saveLoopState(ls, b, iter, Integer.MAX_VALUE, steps);
+                            if (ls[b] == 0) {
+                                // La vuelta que acabábamos de contar también se ha saltado
+                                steps--;
+                                if (m != null)
+                                    m.loopIterations--;
+                                loopTop = b;
+                                pc += 2;
+                                break;
+                            }
+                        } else if (iter - ls[b + 2] >= ls[b + 3]) {
+                            // Algoritmo de Brent: se guarda el estado en potencias de dos
+                            saveLoopState(ls, b, iter, ls[b + 3] < (1 << 30) ? ls[b + 3] * 2 : Integer.MAX_VALUE, steps);
+                        }
+                        pc = code[pc + 1];
+                    } else {
+                        loopTop = b;
+                        pc += 2;
+                    }
+                    break;
+                }
+                case Bytecode.CALL: {
+                    if (steps >= nextCheck && (stop = limitReached(steps)) != null) break run;
+                    steps++;
+                    if (t != null)
+                        t.record(TraceRecorder.OTHER, robotX, robotY, robotDir);
+                    int slot = code[pc + 1];
+                    int nargs = code[pc + 2];
+                    int nparams = bc.funcParams[slot].length;
+                    if (nargs < nparams)
+                        throw new IllegalArgumentException("Faltan argumentos en la llamada a " + bc.funcNames[slot]);
+                    if (callTop == returnStack.length)
+                        growReturnStack(callTop);
+                    if (callTop == frameBase.length)
+                        growFrames(callTop);
+                    if (valueTop + nargs > frameValues.length)
+                        growValues(valueTop + nargs, callTop);
+                    // Los argumentos se evalúan en el contexto de quien llama
+                    for (int i = 0; i < nargs; i++)
+                        frameValues[valueTop + i] = evalOperand(bc, code[pc + 3 + 2 * i], code[pc + 4 + 2 * i], callTop);
+                    // Si ya se conoce el efecto de esta llamada y su zona está libre, se aplica de golpe
+                    if (fuse && moveTable() != null) {
+                        if (summaries == null)
+                            summaries = new SummaryCache();
+                        FunctionSummary summary = summaries.get(bc, pc, slot, robotDir, frameValues, valueTop, nparams);
+                        if (summary != null && maxSteps - steps >= summary.steps && applySummary(summary)) {
+                            steps += summary.steps;
+                            skippedSteps += summary.steps;
+                            pc += 3 + 2 * nargs;
+                            break;
+                        }
+                    }
+                    returnStack[callTop] = pc + 3 + 2 * nargs;
+                    frameParams[callTop] = bc.funcParams[slot];
+                    frameBase[callTop] = valueTop;
+                    callTop++;
+                    valueTop += nparams;
+                    pc = bc.funcEntry[slot];
+                    if (m != null)
+                        m.enter(slot);
+                    break;
+                }
+                case Bytecode.RET:
+                    if (m != null)
+                        m.exit();
+                    callTop--;
+                    valueTop = frameBase[callTop];
+                    pc = returnStack[callTop];
+                    break;
+                case Bytecode.HALT:
+                    stop = RunResult.Status.COMPLETED;
+                    break run;
+                case Bytecode.BREAK:
+                    // Se detiene antes de la instrucción original, que ejecuta Debugger con el código sin parchear
+                    stop = RunResult.Status.BREAKPOINT;
+                    break run;
+                default:
+                    throw new IllegalStateException("Opcode desconocido: " + code[pc]);
             }
-            result.add(new SimpleInstruction(cmd));
         }
-        return result;
+        if (m != null) {
+            m.lightsToggled += lightChanges - lightsBefore;
+            m.end();
+        }
+        this.steps = steps;
+        this.pc = pc;
+        this.loopTop = loopTop;
+        this.frameTop = callTop;
+        this.valueTop = valueTop;
+        return stop;
     }
 
+    private void startLimits(RunLimits limits) {
+        maxSteps = limits.getMaxSteps();
+        cancellation = limits.getCancellation();
+        hasDeadline = limits.getTimeout() != null;
+        if (hasDeadline)
+            deadline = System.nanoTime() + limits.getTimeout().toNanos();
+        nextCheck = 0;
+    }
+
+    // Comprueba los límites de la ejecución; devuelve null si se puede seguir
+    // y en ese caso fija el siguiente punto de control
+    private RunResult.Status limitReached(long steps) {
+        if (steps >= maxSteps)
+            return RunResult.Status.STEPS_EXCEEDED;
+        if (cancellation != null && cancellation.isCancelled())
+            return RunResult.Status.CANCELLED;
+        if (hasDeadline && System.nanoTime() - deadline >= 0)
+            return RunResult.Status.TIME_EXCEEDED;
+        nextCheck = Math.min(steps + CHECK_INTERVAL, maxSteps);
+        return null;
+    }
+
+    // Cuenta un paso del motor de árbol, que se detiene lanzando StopRun
+    void countStep() {
+        checkLimits();
+        steps++;
+    }
+
+    private void checkLimits() {
+        if (steps >= nextCheck) {
+            RunResult.Status stop = limitReached(steps);
+            if (stop != null)
+                throw new StopRun(stop);
+        }
+    }
+
+    // Tramo de FORWARD fusionado en el motor de árbol (ver ForwardRun). Devuelve false si hay
+    // que ejecutarlo paso a paso: con una traza activa o si no quedan pasos para el tramo entero.
+    boolean forwardRun(int moves, int steps) {
+        if (trace != null)
+            return false;
+        checkLimits();
+        if (maxSteps - this.steps < steps)
+            return false;
+        this.steps += steps;
+        forward(moves);
+        return true;
+    }
+
+    // Pasos del código generado por JitCompiler. Cuentan como el intérprete; si hay que detenerse o
+    // la ejecución pasa de JIT_MAX_STEPS pasos salen con JitBailout y la repite el intérprete, que
+    // sabe guardar el punto en el que se detiene y adelantar los bucles que se repiten.
+    void jitForward() {
+        jitCount();
+        forward();
+    }
+
+    void jitLeft() {
+        jitCount();
+        robotDir = (robotDir + 3) % 4;
+    }
+
+    void jitRight() {
+        jitCount();
+        robotDir = (robotDir + 1) % 4;
+    }
+
+    void jitLight() {
+        jitCount();
+        long targets = grid.remainingTargets();
+        light();
+        if (solvedBy(targets))
+            throw JitBailout.SOLVED;
+    }
+
+    void jitStep() {
+        jitCount();
+    }
+
+    void jitForwards(int moves, int steps) {
+        if (this.steps >= nextCheck)
+            jitCheck();
+        if (maxSteps - this.steps < steps)
+            throw JitBailout.INSTANCE;
+        this.steps += steps;
+        forward(moves);
+    }
+
+    private void jitCount() {
+        if (steps >= nextCheck)
+            jitCheck();
+        steps++;
+    }
+
+    private void jitCheck() {
+        if (limitReached(steps) != null || steps >= JIT_MAX_STEPS)
+            throw JitBailout.INSTANCE;
+    }
+
+    // Paso que no mueve al robot: una llamada o una vuelta de REPEAT
+    void countControlStep() {
+        countStep();
+        if (trace != null)
+            trace.record(TraceRecorder.OTHER, robotX, robotY, robotDir);
+    }
+
+    // Detiene el motor de árbol desde cualquier profundidad de la recursión
+    private static final class StopRun extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final RunResult.Status status;
+        StopRun(RunResult.Status status) {
+            super(null, null, false, false);
+            this.status = status;
+        }
+    }
+
+    private void saveLoopState(int[] ls, int b, int iter, int limit, long steps) {
+        loopSteps[b / LOOP_FRAME] = steps;
+        ls[b + 2] = iter;
+        ls[b + 3] = limit;
+        ls[b + 4] = robotX;
+        ls[b + 5] = robotY;
+        ls[b + 6] = robotDir;
+        ls[b + 7] = lightChanges;
+    }
+
+    // Evalúa un operando de expresión buscando los nombres desde el frame más reciente
+    private int evalOperand(Bytecode bc, int kind, int value, int callTop) {
+        if (kind == Bytecode.EXPR_CONST)
+            return value;
+        if (kind == Bytecode.EXPR_LOCAL)
+            return frameValues[frameBase[callTop - 1] + value];
+        if (kind == Bytecode.EXPR_VAR)
+            return varValue(bc, value, callTop);
+        // EXPR_CODE: código de pila
+        final int[] ec = bc.exprCode;
+        final int[] stack = exprStack;
+        int sp = 0;
+        for (int p = value; ; ) {
+            int op = ec[p];
+            switch (op) {
+                case Bytecode.E_END:
+                    return stack[0];
+                case Bytecode.E_CONST:
+                    stack[sp++] = ec[p + 1];
+                    p += 2;
+                    break;
+                case Bytecode.E_LOCAL:
+                    stack[sp++] = frameValues[frameBase[callTop - 1] + ec[p + 1]];
+                    p += 2;
+                    break;
+                case Bytecode.E_VAR:
+                    stack[sp++] = varValue(bc, ec[p + 1], callTop);
+                    p += 2;
+                    break;
+                case Bytecode.E_NEG:
+                    stack[sp - 1] = -stack[sp - 1];
+                    p++;
+                    break;
+                default:
+                    sp--;
+                    stack[sp - 1] = BinaryExpr.apply(op, stack[sp - 1], stack[sp]);
+                    p++;
+            }
+        }
+    }
+
+    private int varValue(Bytecode bc, int symbol, int callTop) {
+        int v = findValue(symbol, callTop);
+        if (v < 0)
+            throw new IllegalArgumentException("Parámetro o valor inválido: " + bc.symbols[symbol]);
+        return frameValues[v];
+    }
+
+    // Posición en frameValues del parámetro con ese símbolo, buscando desde el frame más reciente,
+    // o -1 si ninguna función activa lo tiene
+    private int findValue(int symbol, int top) {
+        for (int f = top - 1; f >= 0; f--) {
+            int[] params = frameParams[f];
+            for (int i = params.length - 1; i >= 0; i--)
+                if (params[i] == symbol)
+                    return frameBase[f] + i;
+        }
+        return -1;
+    }
+
+    // Las pilas crecen al doble; antes se comprueba que no se pase del presupuesto de memoria
+    private void growFrames(int depth) {
+        reserveStack(12L * frameBase.length, depth);
+        frameParams = Arrays.copyOf(frameParams, frameParams.length * 2);
+        frameBase = Arrays.copyOf(frameBase, frameBase.length * 2);
+    }
+
+    private void growReturnStack(int depth) {
+        reserveStack(4L * returnStack.length, depth);
+        returnStack = Arrays.copyOf(returnStack, returnStack.length * 2);
+    }
+
+    private void growLoopStack(int depth) {
+        reserveStack(4L * loopStack.length + 8L * loopSteps.length, depth);
+        loopStack = Arrays.copyOf(loopStack, loopStack.length * 2);
+        loopSteps = Arrays.copyOf(loopSteps, loopSteps.length * 2);
+    }
+
+    private void growValues(int needed, int depth) {
+        int size = Math.max(frameValues.length * 2, needed);
+        reserveStack(4L * (size - frameValues.length), depth);
+        frameValues = Arrays.copyOf(frameValues, size);
+    }
+
+    private void reserveStack(long extraBytes, int depth) {
+        long used = 4L * (returnStack.length + frameBase.length + frameValues.length + loopStack.length)
+                + 8L * (frameParams.length + loopSteps.length);
+        if (used + extraBytes > callStackBudget)
+            throw new CallDepthExceededException(depth, callStackBudget);
+    }
 
     // Ejecuta una instrucción simple
     void doInstruction(String cmd) {
         switch (cmd) {
             case "FORWARD":
-                int nx = robotX + DX[robotDir];
-                int ny = robotY + DY[robotDir];
-                if (nx < 0) nx = width - 1;
-                if (nx >= width) nx = 0;
-                if (ny < 0) ny = height - 1;
-                if (ny >= height) ny = 0;
-                if (map[ny][nx] == '.' || map[ny][nx] == 'O' || map[ny][nx] == 'X' || map[ny][nx] == 'x') {
-                    robotX = nx;
-                    robotY = ny;
-                }
+                countStep();
+                boolean moved = forward();
+                if (trace != null)
+                    trace.record(moved ? TraceRecorder.FORWARD : TraceRecorder.FORWARD_BLOCKED, robotX, robotY, robotDir);
                 break;
             case "LEFT":
+                countStep();
                 robotDir = (robotDir + 3) % 4;  // Girar a la izquierda
+                if (trace != null)
+                    trace.record(TraceRecorder.LEFT, robotX, robotY, robotDir);
                 break;
             case "RIGHT":
+                countStep();
                 robotDir = (robotDir + 1) % 4;  // Girar a la derecha
+                if (trace != null)
+                    trace.record(TraceRecorder.RIGHT, robotX, robotY, robotDir);
                 break;
             case "LIGHT":
-                if (map[robotY][robotX] == '.') {
-                    map[robotY][robotX] = 'x';
-                } else if (map[robotY][robotX] == 'O') {
-                    map[robotY][robotX] = 'X';
-                }
+                countStep();
+                long targets = grid.remainingTargets();
+                boolean lit = light();
+                if (trace != null)
+                    trace.record(lit ? TraceRecorder.LIGHT : TraceRecorder.LIGHT_NOOP, robotX, robotY, robotDir);
+                if (solvedBy(targets))
+                    throw new StopRun(RunResult.Status.SOLVED);
                 break;
         }
     }
 
+    // Repite un evento de una traza grabada (ver TraceReplayer); no cuenta pasos
+    void replayEvent(int event) {
+        switch (event) {
+            case TraceRecorder.FORWARD: forward(); break;
+            case TraceRecorder.LEFT: robotDir = (robotDir + 3) % 4; break;
+            case TraceRecorder.RIGHT: robotDir = (robotDir + 1) % 4; break;
+            case TraceRecorder.LIGHT: light(); break;
+        }
+    }
+
+    // Coloca el robot y enciende casillas al saltar a un fotograma clave de una traza
+    // (sin contar como pasos)
+    void moveRobot(int x, int y, int dir) {
+        robotX = x;
+        robotY = y;
+        robotDir = dir;
+    }
+
+    void lightCell(int x, int y) {
+        if (grid.light(x, y))
+            lightChanges++;
+    }
+
+    // Casillas encendidas desde el mapa inicial, y vuelta atrás apagando las últimas hasta que
+    // quedan count, para volver a un fotograma clave anterior de una traza
+    int litCount() { return grid.litMark(); }
+
+    void unlightTo(int count) {
+        lightChanges -= grid.litMark() - count;
+        grid.undoLit(count);
+    }
+
+    private void discardMoveTable() {
+        if (moveTable != null)
+            spareTable = moveTable;
+        moveTable = null;
+        tableBuilt = false;
+        plainForwards = (int) Math.min((long) width * height / 4, Integer.MAX_VALUE);
+    }
+
+    private MoveTable moveTable() {
+        if (!tableBuilt) {
+            tableBuilt = true;
+            moveTable = MoveTable.build(grid, spareTable);
+            spareTable = null;
+        }
+        return moveTable;
+    }
+
+    // Devuelve false si la casilla de delante no es transitable y el robot no se mueve
+    private boolean forward() {
+        MoveTable table = moveTable;
+        if (table == null && !tableBuilt && --plainForwards < 0)
+            table = moveTable();
+        if (table != null) {
+            int n = table.next[(robotY * width + robotX) << 2 | robotDir];
+            if (n < 0)
+                return false;
+            if ((robotDir & 1) == 0)
+                robotX = n;
+            else
+                robotY = n;
+            return true;
+        }
+        int nx = robotX + DX[robotDir];
+        int ny = robotY + DY[robotDir];
+        if (wraps) {
+            if (nx < 0) nx = width - 1;
+            if (nx >= width) nx = 0;
+            if (ny < 0) ny = height - 1;
+            if (ny >= height) ny = 0;
+        }
+        if (grid.isWalkable(nx, ny)) {
+            robotX = nx;
+            robotY = ny;
+            return true;
+        }
+        return false;
+    }
+
+    // Avanza k casillas seguidas o hasta chocar. Con tablas cuesta O(1): en la dirección del robot
+    // solo cambia una coordenada y reach dice cuánto puede avanzar antes de la primera pared.
+    private void forward(int k) {
+        MoveTable moveTable = moveTable();
+        if (moveTable == null) {
+            // Un FORWARD bloqueado no cambia nada, así que los siguientes también lo estarían
+            int i = 0;
+            while (i < k && forward())
+                i++;
+            return;
+        }
+        int moved = Math.min(k, moveTable.reach[(robotY * width + robotX) << 2 | robotDir]);
+        int sign = robotDir < 2 ? 1 : -1;
+        if ((robotDir & 1) == 0)
+            robotX = Math.floorMod(robotX + sign * (moved % width), width);
+        else
+            robotY = Math.floorMod(robotY + sign * (moved % height), height);
+    }
+
+    // Aplica el efecto de una llamada si no hay paredes en el rectángulo que recorre desde aquí
+    private boolean applySummary(FunctionSummary summary) {
+        if (!moveTable.isClear((long) robotX + summary.minX, (long) robotY + summary.minY,
+                (long) robotX + summary.maxX, (long) robotY + summary.maxY))
+            return false;
+        int[] lights = summary.lights;
+        long targets = grid.remainingTargets();
+        int before = grid.litMark();
+        int changes = lightChanges;
+        for (int i = 0; i < lights.length; i += 2)
+            lightCell(Math.floorMod(robotX + lights[i], width), Math.floorMod(robotY + lights[i + 1], height));
+        if (solvedBy(targets)) {
+            // La última casilla objetivo se enciende dentro de la llamada: se ejecuta paso a paso para
+            // detenerse justo en ese LIGHT
+            grid.undoLit(before);
+            lightChanges = changes;
+            return false;
+        }
+        robotX = Math.floorMod(robotX + summary.dx, width);
+        robotY = Math.floorMod(robotY + summary.dy, height);
+        robotDir = summary.dir;
+        summaries.applied++;
+        return true;
+    }
+
+    // Llamadas sustituidas por su resumen desde que se creó este LightBot (ver FunctionSummary)
+    long appliedSummaries() { return summaries == null ? 0 : summaries.applied; }
+    long summaryProbes() { return summaries == null ? 0 : summaries.probes; }
+
+    // Si hay que detenerse porque se acaba de encender la última casilla objetivo;
+    // targets es el número de casillas objetivo que quedaban antes de encender
+    private boolean solvedBy(long targets) {
+        return stopWhenSolved && targets > 0 && grid.remainingTargets() == 0;
+    }
+
+    // Casillas 'O' del mapa que quedan por encender; O(1), lo lleva el Grid al día
+    public long remainingTargets() { return grid.remainingTargets(); }
+
+    // Si el robot ha encendido todas las casillas objetivo
+    public boolean isSolved() { return grid.remainingTargets() == 0; }
+
+    // Con stop activado, las ejecuciones se detienen con RunResult.Status.SOLVED en cuanto se
+    // enciende la última casilla objetivo, sin ejecutar el resto del programa. La ejecución no se
+    // puede continuar con resume. Un mapa sin casillas objetivo no detiene nada.
+    public void setStopWhenSolved(boolean stop) { stopWhenSolved = stop; }
+
+    public boolean isStopWhenSolved() { return stopWhenSolved; }
+
+    // Devuelve true si la casilla se ha encendido
+    private boolean light() {
+        if (!grid.light(robotX, robotY))
+            return false;
+        lightChanges++;
+        return true;
+    }
+
     // Obtener función por nombre
     public UserFunction getFunction(String name) {
         return functions.get(name);
     }
 
-    // Añade un nuevo contexto/local frame donde se guardan los parámetros y sus valores
-// Esto simula la "memoria local" de una función cuando esta es llamada
-// paramNames: lista de nombres de parámetros (ej. ["n", "m"])
-// argValues: valores con los que se llama la función (ej. [5, 3])
-    void pushFrame(List<String> paramNames, List<Integer> argValues) {
-        Map<String,Integer> frame = new HashMap<>();
-        // Por cada parámetro, asociamos el nombre con su valor correspondiente
-        for (int i = 0; i < paramNames.size(); i++)
-            frame.put(paramNames.get(i), argValues.get(i));
-        // Esta nueva tabla de variables se guarda "arriba" de la pila de contextos
-        // Significa que ahora esta función tiene su propio espacio para las variables
-        locals.push(frame);
+    // Añade un nuevo frame con los parámetros de la función que se llama.
+// Los argumentos se evalúan antes de apilarlo, en el contexto de quien llama,
+// y se guardan directamente en la pila de enteros: no se reserva memoria por llamada
+    void pushFrame(UserFunction func, Expr[] args) {
+        int[] params = func.getParamSymbols();
+        if (args.length < params.length)
+            throw new IllegalArgumentException("Faltan argumentos en la llamada a " + func.getName());
+        if (valueTop + args.length > frameValues.length)
+            growValues(valueTop + args.length, frameTop);
+        for (int i = 0; i < args.length; i++)
+            frameValues[valueTop + i] = args[i].eval(this);
+        if (frameTop == frameBase.length)
+            growFrames(frameTop);
+        frameParams[frameTop] = params;
+        frameBase[frameTop] = valueTop;
+        frameTop++;
+        valueTop += params.length;
     }
 
-    // Elimina el contexto local superior cuando una función termina su ejecución
-// Esto es necesario para que al salir de la función, las variables locales desaparezcan
-// y no interfieran con el resto del programa o con otras llamadas
+    // Elimina el frame superior cuando la función termina su ejecución
     void popFrame() {
-        if (!locals.isEmpty())
-            locals.pop();
+        if (frameTop > 0)
+            valueTop = frameBase[--frameTop];
     }
 
-    // Evalúa el valor de una expresión entera
-// Si expr es un número (ej. "5"), lo convierte y devuelve
-// Si expr es un nombre de variable (ej. "n") busca el valor en la pila de contextos
-// Es decir, busca el valor actual de ese parámetro o variable local para devolverlo
-    int evalExpr(String expr) {
-        try {
-            // Intentamos interpretar expr directamente como número
-            return Integer.parseInt(expr);
-        } catch (NumberFormatException nfe) {
-            // No es un número, debe ser un nombre de variable
-            // Buscamos en cada contexto local desde el más reciente hacia atrás
-            for (Map<String,Integer> frame : locals)
-                if (frame.containsKey(expr))
-                    return frame.get(expr);
-            // Si no encontramos el nombre, lanzamos error indicándolo
-            throw new IllegalArgumentException("Parámetro o valor inválido: " + expr);
-        }
+    // Valor del parámetro slot de la función en ejecución
+    int localValue(int slot) {
+        return frameValues[frameBase[frameTop - 1] + slot];
+    }
+
+    // Busca un nombre en la pila de frames, desde el más reciente hacia atrás
+    int lookupValue(int symbol, String name) {
+        int v = findValue(symbol, frameTop);
+        if (v < 0)
+            throw new IllegalArgumentException("Parámetro o valor inválido: " + name);
+        return frameValues[v];
     }
 
     public int[] getRobotPosition() {
@@ -292,9 +1158,32 @@ public class LightBot {
     }
 
     public String[] getMap() {
-        String[] result = new String[height];
-        for (int y = 0; y < height; y++)
-            result[y] = new String(map[y]);
-        return result;
+        return getMapRows().toArray(new String[0]);
+    }
+
+    // Zona de w x h casillas con la esquina superior izquierda en (x, y). En los mapas con bordes
+    // las coordenadas dan la vuelta igual que el robot; en los mapas sin bordes es la forma de ver
+    // lo que queda fuera del mapa inicial, y solo se recorren las casillas de la zona pedida.
+    public String[] getMap(int x, int y, int w, int h) {
+        if (w < 0 || h < 0)
+            throw new IllegalArgumentException("Tamaño de la vista inválido: " + w + "x" + h);
+        String[] rows = new String[h];
+        char[] chars = new char[w];
+        for (int r = 0; r < h; r++) {
+            for (int c = 0; c < w; c++) {
+                int cx = x + c, cy = y + r;
+                chars[c] = wraps ? grid.cell(Math.floorMod(cx, width), Math.floorMod(cy, height)) : grid.cell(cx, cy);
+            }
+            rows[r] = new String(chars);
+        }
+        return rows;
+    }
+
+    // Vista de las filas del mapa que genera cada String solo cuando se pide
+    public List<String> getMapRows() {
+        return new AbstractList<String>() {
+            public String get(int y) { return grid.row(Objects.checkIndex(y, height)); }
+            public int size() { return height; }
+        };
     }
 }
\ No newline at end of file
@@ -0,0 +1,56 @@
+// Estado guardado con LightBot.snapshot(). Es inmutable y solo se puede restaurar
+// en el LightBot que lo creó.
+public final class LightBotSnapshot {
+    final LightBot owner;
+    final int robotX, robotY, robotDir;
+    final int lightChanges;
+    final LitNode litHead;
+    // Punto de la ejecución detenida; program es null si no había ninguna
+    final Program program;
+    final Bytecode bytecode;
+    final long steps;
+    final int pc;
+    final int[] loopStack;
+    final long[] loopSteps;
+    final int[] returnStack;
+    final int[][] frameParams;
+    final int[] frameBase;
+    final int[] frameValues;
+
+    // Instantánea sin ejecución detenida
+    LightBotSnapshot(LightBot owner, int robotX, int robotY, int robotDir, int lightChanges, LitNode litHead) {
+        this(owner, robotX, robotY, robotDir, lightChanges, litHead, null, null, 0, 0, null, null, null, null, null, null);
+    }
+
+    // Las pilas ya llegan copiadas y nadie más las modifica
+    LightBotSnapshot(LightBot owner, int robotX, int robotY, int robotDir, int lightChanges, LitNode litHead,
+                     Program program, Bytecode bytecode, long steps, int pc, int[] loopStack, long[] loopSteps,
+                     int[] returnStack, int[][] frameParams, int[] frameBase, int[] frameValues) {
+        this.owner = owner;
+        this.robotX = robotX;
+        this.robotY = robotY;
+        this.robotDir = robotDir;
+        this.lightChanges = lightChanges;
+        this.litHead = litHead;
+        this.program = program;
+        this.bytecode = bytecode;
+        this.steps = steps;
+        this.pc = pc;
+        this.loopStack = loopStack;
+        this.loopSteps = loopSteps;
+        this.returnStack = returnStack;
+        this.frameParams = frameParams;
+        this.frameBase = frameBase;
+        this.frameValues = frameValues;
+    }
+
+    public int[] getRobotPosition() {
+        return new int[]{robotX, robotY};
+    }
+
+    // Indica si la instantánea se tomó con una ejecución detenida que se puede continuar tras restaurarla
+    public boolean canResume() { return program != null; }
+
+    // Pasos de la ejecución detenida en el momento de la instantánea (0 si no había ninguna)
+    public long getSteps() { return steps; }
+}
@@ -0,0 +1,588 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+// Busca un programa corto que enciende todas las casillas objetivo ('O') de un mapa.
+// Primero encuentra con A* la secuencia mínima de FORWARD/LEFT/RIGHT/LIGHT sobre los estados
+// (posición, dirección, objetivos encendidos) y después la comprime con REPEAT y con hasta dos
+// funciones sin parámetros. La secuencia es mínima, pero la compresión no: los REPEAT son los
+// mejores para las funciones elegidas, y las funciones se eligen entre unas pocas subsecuencias
+// repetidas, así que otra secuencia igual de larga podría dar un programa más corto.
+public final class LightBotSolver {
+    private static final String[] ACTIONS = {"FORWARD", "LEFT", "RIGHT", "LIGHT"};
+    private static final int[] DX = {1, 0, -1, 0};  // Mismo orden de direcciones que LightBot
+    private static final int[] DY = {0, 1, 0, -1};
+    private static final int MAX_TARGETS = 38;      // el estado se empaqueta en un long
+    private static final int MST_CACHE_TARGETS = 20;
+    private static final int PARALLEL_WAVE = 256;   // por debajo no compensa repartir entre hilos
+    private static final int CANDIDATES = 8;        // funciones candidatas que se evalúan a fondo
+    private static final long HASH_BASE = 0x9E3779B97F4A7C15L;  // hash de las subsecuencias (ver Compressor)
+    private static final long HASH_MIX = 0xC2B2AE3D27D4EB4FL;
+
+    private final int width, height;
+    private final boolean[] walkable;
+    private final int[] targets;         // casilla de cada objetivo
+    private final int[] targetIndex;     // objetivo de cada casilla o -1
+    private final int[] mstCache;        // peso del árbol mínimo de cada conjunto de objetivos, -1 si no se sabe
+    private int[][] minTo;               // minTo[origen * 4 + dir][t]: pasos mínimos, con giros, hasta t
+    private int[][] edge;                // edge[a][b]: pasos mínimos de a a b en la mejor dirección
+    private final int startCell, startDir;
+    private final long startMask, goalMask;
+
+    private LightBotSolver(String map) {
+        String[] lines = map.split("\n");
+        height = lines.length;
+        width = lines[0].length();
+        if ((long) width * height >= 1 << 24)
+            throw new IllegalArgumentException("Mapa demasiado grande para el solucionador");
+        walkable = new boolean[width * height];
+        targetIndex = new int[width * height];
+        Arrays.fill(targetIndex, -1);
+        List<Integer> targetList = new ArrayList<>();
+        long lit = 0;
+        int robot = -1, dir = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                char c = lines[y].charAt(x);
+                int cell = y * width + x;
+                walkable[cell] = "RLUD.xOX".indexOf(c) > -1;
+                if (c == 'O' || c == 'X') {
+                    if (c == 'X')
+                        lit |= 1L << targetList.size();
+                    targetIndex[cell] = targetList.size();
+                    targetList.add(cell);
+                }
+                if ("RDLU".indexOf(c) > -1) {
+                    robot = cell;
+                    dir = "RDLU".indexOf(c);
+                }
+            }
+        }
+        if (robot < 0)
+            throw new IllegalArgumentException("No s'ha trobat el robot!");
+        if (targetList.size() > MAX_TARGETS)
+            throw new IllegalArgumentException("Demasiados objetivos para el solucionador: " + targetList.size());
+        targets = targetList.stream().mapToInt(Integer::intValue).toArray();
+        startCell = robot;
+        startDir = dir;
+        startMask = lit;
+        goalMask = (1L << targets.length) - 1;
+        if (targets.length <= MST_CACHE_TARGETS) {
+            mstCache = new int[1 << targets.length];
+            Arrays.fill(mstCache, -1);
+        } else {
+            mstCache = null;
+        }
+    }
+
+    // Programa que enciende todos los objetivos con el mínimo de acciones, comprimido con REPEAT y
+    // hasta dos funciones (ver la cabecera: no es necesariamente el programa más corto), o null si
+    // algún objetivo es inalcanzable
+    public static String[] solve(String map) {
+        return solve(map, 2, true);
+    }
+
+    public static String[] solve(String map, int maxFunctions, boolean useRepeat) {
+        if (maxFunctions < 0 || maxFunctions > 2)
+            throw new IllegalArgumentException("Número de funciones inválido: " + maxFunctions);
+        LightBotSolver solver = new LightBotSolver(map);
+        int[] actions = solver.search();
+        if (actions == null)
+            return null;
+        String[] program = new Compressor(actions, maxFunctions, useRepeat).program();
+        // La compresión no cambia los pasos del robot, pero se comprueba por si acaso
+        return solves(map, program) ? program : Compressor.raw(actions);
+    }
+
+    private static boolean solves(String map, String[] program) {
+        LightBot bot = new LightBot(map);
+        bot.runProgram(program);
+        for (String row : bot.getMapRows())
+            if (row.indexOf('O') >= 0)
+                return false;
+        return true;
+    }
+
+    // Casilla de delante, con las mismas vueltas del toro que LightBot
+    private int step(int cell, int dir) {
+        int x = Math.floorMod(cell % width + DX[dir], width);
+        int y = Math.floorMod(cell / width + DY[dir], height);
+        return y * width + x;
+    }
+
+    // Cota inferior de los pasos que faltan desde el objetivo from (o la casilla inicial)
+    // mirando en dir: un LIGHT por objetivo apagado, llegar al más cercano y recorrer el árbol
+    // de expansión mínimo de los demás, todo con distancias que cuentan los giros pero no los
+    // demás objetivos. Es consistente: el primer tramo cuesta al menos lo que hay hasta el más
+    // cercano, y unir el objetivo que se enciende al árbol de los que quedan no cuesta más que
+    // ese tramo.
+    private int heuristic(int from, int dir, long mask) {
+        long unlit = goalMask & ~mask;
+        if (unlit == 0)
+            return 0;
+        int[] reach = minTo[from * 4 + dir];
+        int nearest = Integer.MAX_VALUE;
+        for (long rest = unlit; rest != 0; rest &= rest - 1)
+            nearest = Math.min(nearest, reach[Long.numberOfTrailingZeros(rest)]);
+        return Long.bitCount(unlit) + nearest + spanningTree(unlit);
+    }
+
+    private int spanningTree(long set) {
+        if (mstCache != null && mstCache[(int) set] >= 0)
+            return mstCache[(int) set];
+        // Prim sobre las distancias entre objetivos
+        int n = Long.bitCount(set);
+        int[] members = new int[n];
+        int k = 0;
+        for (long rest = set; rest != 0; rest &= rest - 1)
+            members[k++] = Long.numberOfTrailingZeros(rest);
+        int[] best = new int[n];
+        boolean[] inTree = new boolean[n];
+        Arrays.fill(best, Integer.MAX_VALUE);
+        best[0] = 0;
+        int total = 0;
+        for (int added = 0; added < n; added++) {
+            int u = -1;
+            for (int i = 0; i < n; i++)
+                if (!inTree[i] && (u < 0 || best[i] < best[u]))
+                    u = i;
+            inTree[u] = true;
+            total += best[u];
+            for (int i = 0; i < n; i++)
+                if (!inTree[i])
+                    best[i] = Math.min(best[i], edge[members[u]][members[i]]);
+        }
+        if (mstCache != null)
+            mstCache[(int) set] = total;
+        return total;
+    }
+
+    // Caminos más cortos contando los giros, sobre los estados casilla * 4 + dirección.
+    // Las casillas de los objetivos de stopAt son finales: se puede entrar en ellas pero no
+    // seguir, porque al pisar un objetivo apagado se enciende siempre (ver search).
+    // parent guarda de qué estado se llega a cada uno y con qué acción (estado * 4 + acción).
+    private final class Paths {
+        final int[] dist;
+        final int[] parent;
+
+        Paths(int cell, int dir, long stopAt) {
+            int n = width * height * 4;
+            dist = new int[n];
+            parent = new int[n];
+            Arrays.fill(dist, Integer.MAX_VALUE);
+            int[] queue = new int[n];
+            int head = 0, tail = 0;
+            int from = cell * 4 + dir;
+            dist[from] = 0;
+            queue[tail++] = from;
+            while (head < tail) {
+                int s = queue[head++];
+                int c = s >> 2, d = s & 3;
+                if (s != from && targetIndex[c] >= 0 && (stopAt & 1L << targetIndex[c]) != 0)
+                    continue;
+                for (int action = 0; action < 3; action++) {
+                    int next;
+                    if (action == 0) {
+                        int ahead = step(c, d);
+                        if (!walkable[ahead]) continue;
+                        next = ahead * 4 + d;
+                    } else {
+                        next = c * 4 + (action == 1 ? (d + 3) % 4 : (d + 1) % 4);
+                    }
+                    if (dist[next] == Integer.MAX_VALUE) {
+                        dist[next] = dist[s] + 1;
+                        parent[next] = s * 4 + action;
+                        queue[tail++] = next;
+                    }
+                }
+            }
+        }
+
+        // Acciones desde el origen hasta el estado s, en orden
+        void appendPath(int s, List<Integer> out) {
+            int at = out.size();
+            for (int k = 0; k < dist[s]; k++)
+                out.add(0);
+            for (int k = dist[s] - 1; k >= 0; k--) {
+                out.set(at + k, parent[s] & 3);
+                s = parent[s] >> 2;
+            }
+        }
+    }
+
+    // Nodo de la búsqueda: el robot acaba de encender el objetivo target (o está en la casilla
+    // inicial si target == targets.length) mirando en dir. El camino se reconstruye con parent.
+    private static final class Node {
+        final long state;
+        final Node parent;
+        final int g;
+
+        Node(long state, Node parent, int g) {
+            this.state = state;
+            this.parent = parent;
+            this.g = g;
+        }
+    }
+
+    private static long pack(int target, int dir, long mask) { return mask << 8 | target << 2 | dir; }
+    private static int target(long state) { return (int) (state >> 2) & 63; }
+    private static int dir(long state) { return (int) state & 3; }
+    private static long mask(long state) { return state >>> 8; }
+
+    private int cellOf(int target) { return target == targets.length ? startCell : targets[target]; }
+
+    // Distancias sin tener en cuenta los demás objetivos, para la heurística
+    private void computeBounds() {
+        minTo = new int[(targets.length + 1) * 4][];
+        edge = new int[targets.length][targets.length];
+        for (int t = 0; t <= targets.length; t++) {
+            for (int d = 0; d < 4; d++) {
+                Paths paths = new Paths(cellOf(t), d, 0);
+                int[] reach = new int[targets.length];
+                for (int u = 0; u < targets.length; u++) {
+                    reach[u] = Integer.MAX_VALUE;
+                    for (int a = 0; a < 4; a++)
+                        reach[u] = Math.min(reach[u], paths.dist[targets[u] * 4 + a]);
+                    if (t < targets.length)
+                        edge[t][u] = d == 0 ? reach[u] : Math.min(edge[t][u], reach[u]);
+                }
+                minTo[t * 4 + d] = reach;
+            }
+        }
+    }
+
+    // A* sobre los momentos en que se enciende un objetivo. Hay siempre una solución mínima en la
+    // que el robot enciende cada objetivo apagado nada más pisarlo (adelantar ese LIGHT no cambia
+    // nada más), así que cada arista es un camino mínimo, contando giros, hasta el primer objetivo
+    // apagado que se pisa, más el LIGHT. Los nodos se agrupan por f = g + h; como h es consistente,
+    // cada grupo solo genera nodos de su mismo f o mayor y se expande en oleadas, con los nodos de
+    // cada oleada en paralelo. El conjunto de visitados guarda el mejor nodo de cada estado;
+    // un nodo que ha sido mejorado se descarta al llegar su turno.
+    private int[] search() {
+        computeBounds();
+        for (int t = 0; t < targets.length; t++)
+            if ((startMask & 1L << t) == 0 && minTo[targets.length * 4 + startDir][t] == Integer.MAX_VALUE)
+                return null;
+        ConcurrentHashMap<Long, Node> best = new ConcurrentHashMap<>();
+        List<List<Node>> buckets = new ArrayList<>();
+        Node start = new Node(pack(targets.length, startDir, startMask), null, 0);
+        best.put(start.state, start);
+        int f = heuristic(targets.length, startDir, startMask);
+        addToBucket(buckets, f, start);
+        for (; f < buckets.size(); f++) {
+            List<Node> wave = buckets.get(f);
+            buckets.set(f, null);
+            while (wave != null && !wave.isEmpty()) {
+                List<Node> current = new ArrayList<>();
+                Node goal = null;
+                for (Node n : wave) {
+                    if (best.get(n.state) != n)
+                        continue;
+                    if (mask(n.state) == goalMask && (goal == null || n.state < goal.state))
+                        goal = n;
+                    current.add(n);
+                }
+                if (goal != null)
+                    return path(goal);
+                List<Node> children = (current.size() >= PARALLEL_WAVE ? current.parallelStream() : current.stream())
+                        .flatMap(n -> expand(n, best).stream())
+                        .collect(Collectors.toList());
+                wave = new ArrayList<>();
+                for (Node child : children) {
+                    int childF = child.g + heuristic(target(child.state), dir(child.state), mask(child.state));
+                    if (childF == f)
+                        wave.add(child);
+                    else
+                        addToBucket(buckets, childF, child);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void addToBucket(List<List<Node>> buckets, int f, Node node) {
+        while (buckets.size() <= f)
+            buckets.add(null);
+        if (buckets.get(f) == null)
+            buckets.set(f, new ArrayList<>());
+        buckets.get(f).add(node);
+    }
+
+    private Paths legsFrom(Node n) {
+        return new Paths(cellOf(target(n.state)), dir(n.state), goalMask & ~mask(n.state));
+    }
+
+    // Sucesores que mejoran el mejor camino conocido a su estado: llegar a un objetivo apagado
+    // con un FORWARD y encenderlo
+    private List<Node> expand(Node n, ConcurrentHashMap<Long, Node> best) {
+        Paths legs = legsFrom(n);
+        long mask = mask(n.state);
+        List<Node> result = new ArrayList<>();
+        for (long rest = goalMask & ~mask; rest != 0; rest &= rest - 1) {
+            int t = Long.numberOfTrailingZeros(rest);
+            for (int d = 0; d < 4; d++) {
+                int s = targets[t] * 4 + d;
+                if (legs.dist[s] == Integer.MAX_VALUE || (legs.parent[s] & 3) != 0)
+                    continue;
+                Node child = new Node(pack(t, d, mask | 1L << t), n, n.g + legs.dist[s] + 1);
+                if (best.compute(child.state, (k, old) -> old == null || child.g < old.g ? child : old) == child)
+                    result.add(child);
+            }
+        }
+        return result;
+    }
+
+    private int[] path(Node goal) {
+        List<Node> legs = new ArrayList<>();
+        for (Node n = goal; n.parent != null; n = n.parent)
+            legs.add(n);
+        Collections.reverse(legs);
+        List<Integer> actions = new ArrayList<>();
+        for (Node leg : legs) {
+            legsFrom(leg.parent).appendPath(targets[target(leg.state)] * 4 + dir(leg.state), actions);
+            actions.add(3);
+        }
+        return actions.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // Convierte la secuencia de acciones en un programa corto. Trabaja sobre fichas: 0-3 son las
+    // acciones y 4 + k es CALL a la función k. REPEAT se elige por programación dinámica sobre
+    // los tramos; las funciones, entre las subsecuencias repetidas que más ahorran.
+    static final class Compressor {
+        private final boolean useRepeat;
+        private final List<int[]> functions = new ArrayList<>();
+        private int[] main;
+
+        Compressor(int[] actions, int maxFunctions, boolean useRepeat) {
+            this.useRepeat = useRepeat;
+            main = actions;
+            for (int k = 0; k < maxFunctions; k++)
+                if (!extractFunction())
+                    break;
+        }
+
+        static String[] raw(int[] actions) {
+            String[] lines = new String[actions.length];
+            for (int i = 0; i < actions.length; i++)
+                lines[i] = ACTIONS[actions[i]];
+            return lines;
+        }
+
+        String[] program() {
+            List<String> lines = new ArrayList<>();
+            for (int k = 0; k < functions.size(); k++) {
+                lines.add("FUNCTION F" + (k + 1));
+                new Plan(functions.get(k)).emit(lines);
+                lines.add("ENDFUNCTION");
+            }
+            new Plan(main).emit(lines);
+            return lines.toArray(new String[0]);
+        }
+
+        private int size() {
+            int total = new Plan(main).cost();
+            for (int[] body : functions)
+                total += new Plan(body).cost();
+            return total;
+        }
+
+        // Prueba las subsecuencias que más parecen ahorrar y se queda con la mejor si reduce el programa
+        private boolean extractFunction() {
+            int bestSize = size();
+            int[] bestMain = null, bestBody = null;
+            for (int[] body : candidates(main)) {
+                int[] replaced = replace(main, body, 4 + functions.size());
+                int[] saved = main;
+                main = replaced;
+                functions.add(body);
+                int size = size();
+                functions.remove(functions.size() - 1);
+                main = saved;
+                if (size < bestSize) {
+                    bestSize = size;
+                    bestMain = replaced;
+                    bestBody = body;
+                }
+            }
+            if (bestBody == null)
+                return false;
+            main = bestMain;
+            functions.add(bestBody);
+            return true;
+        }
+
+        // Las CANDIDATES subsecuencias que aparecen al menos dos veces sin solaparse con más ahorro
+        // estimado. Para cada longitud se calcula el hash de todas las ventanas a partir de los
+        // prefijos y se ordenan por hash, así que las ventanas iguales quedan juntas: O(n² log n)
+        // en total en lugar de comparar cada subsecuencia con toda la secuencia.
+        static List<int[]> candidates(int[] seq) {
+            int n = seq.length;
+            long[] prefix = new long[n + 1], power = new long[n + 1];
+            power[0] = 1;
+            for (int i = 0; i < n; i++) {
+                prefix[i + 1] = prefix[i] * HASH_BASE + seq[i] + 1;
+                power[i + 1] = power[i] * HASH_BASE;
+            }
+            // En cada clave, el hash en los bits altos y la posición en los bajos. Las ventanas que
+            // se parecen difieren en los bits bajos del hash: se mezclan antes de quitarlos.
+            int posBits = 32 - Integer.numberOfLeadingZeros(n);
+            long posMask = (1L << posBits) - 1;
+            long[] keys = new long[n];
+            int[] start = new int[CANDIDATES], length = new int[CANDIDATES], saving = new int[CANDIDATES];
+            int found = 0;
+            for (int len = 2; len <= n / 2; len++) {
+                int windows = n - len + 1;
+                for (int i = 0; i < windows; i++)
+                    keys[i] = (prefix[i + len] - prefix[i] * power[len]) * HASH_MIX & ~posMask | i;
+                Arrays.sort(keys, 0, windows);
+                for (int a = 0, b; a < windows; a = b) {
+                    long hash = keys[a] & ~posMask;
+                    for (b = a + 1; b < windows && (keys[b] & ~posMask) == hash; b++) {}
+                    if (b - a < 2)
+                        continue;
+                    // Apariciones sin solaparse, de izquierda a derecha; las posiciones están ordenadas.
+                    // Si dos ventanas distintas comparten hash solo cuentan las iguales a la primera.
+                    int first = (int) (keys[a] & posMask), count = 0, next = 0;
+                    for (int k = a; k < b; k++) {
+                        int at = (int) (keys[k] & posMask);
+                        if (at >= next && same(seq, first, at, len)) {
+                            count++;
+                            next = at + len;
+                        }
+                    }
+                    if (count < 2)
+                        continue;
+                    // Inserción ordenada entre las mejores, de más a menos ahorro y luego por sus fichas
+                    int value = estimatedSaving(len, count);
+                    int pos = found;
+                    while (pos > 0 && (saving[pos - 1] < value
+                            || saving[pos - 1] == value && before(seq, first, len, start[pos - 1], length[pos - 1])))
+                        pos--;
+                    if (pos == CANDIDATES)
+                        continue;
+                    int last = Math.min(found, CANDIDATES - 1);
+                    System.arraycopy(start, pos, start, pos + 1, last - pos);
+                    System.arraycopy(length, pos, length, pos + 1, last - pos);
+                    System.arraycopy(saving, pos, saving, pos + 1, last - pos);
+                    start[pos] = first;
+                    length[pos] = len;
+                    saving[pos] = value;
+                    found = last + 1;
+                }
+            }
+            List<int[]> result = new ArrayList<>(found);
+            for (int c = 0; c < found; c++)
+                result.add(Arrays.copyOfRange(seq, start[c], start[c] + length[c]));
+            return result;
+        }
+
+        private static int estimatedSaving(int length, int occurrences) {
+            return occurrences * length - occurrences - length;
+        }
+
+        private static boolean same(int[] seq, int a, int b, int len) {
+            if (a == b)
+                return true;
+            for (int j = 0; j < len; j++)
+                if (seq[a + j] != seq[b + j])
+                    return false;
+            return true;
+        }
+
+        // Orden de desempate: ficha a ficha, y si una es prefijo de la otra, la más larga primero
+        private static boolean before(int[] seq, int a, int lenA, int b, int lenB) {
+            for (int j = 0; j < Math.min(lenA, lenB); j++)
+                if (seq[a + j] != seq[b + j])
+                    return seq[a + j] < seq[b + j];
+            return lenA > lenB;
+        }
+
+        private static int[] replace(int[] seq, int[] body, int token) {
+            int[] out = new int[seq.length];
+            int n = 0;
+            for (int i = 0; i < seq.length; ) {
+                if (i + body.length <= seq.length && matches(seq, i, body)) {
+                    out[n++] = token;
+                    i += body.length;
+                } else {
+                    out[n++] = seq[i++];
+                }
+            }
+            return Arrays.copyOf(out, n);
+        }
+
+        private static boolean matches(int[] seq, int at, int[] body) {
+            for (int j = 0; j < body.length; j++)
+                if (seq[at + j] != body[j])
+                    return false;
+            return true;
+        }
+
+        // Mejor forma de escribir cada tramo [i, j) de una secuencia: tal cual, partido en dos
+        // o como REPEAT de un periodo que se repite
+        private final class Plan {
+            private final int[] seq;
+            private final int[][] cost, split, period;
+
+            Plan(int[] seq) {
+                this.seq = seq;
+                int n = seq.length;
+                cost = new int[n + 1][n + 1];
+                split = new int[n + 1][n + 1];
+                period = new int[n + 1][n + 1];
+                for (int len = 1; len <= n; len++) {
+                    for (int i = 0, j = len; j <= n; i++, j++) {
+                        if (len == 1) {
+                            cost[i][j] = 1;
+                            continue;
+                        }
+                        int best = Integer.MAX_VALUE;
+                        for (int k = i + 1; k < j; k++) {
+                            if (cost[i][k] + cost[k][j] < best) {
+                                best = cost[i][k] + cost[k][j];
+                                split[i][j] = k;
+                            }
+                        }
+                        if (useRepeat) {
+                            for (int p = 1; p <= len / 2; p++) {
+                                if (len % p == 0 && 1 + cost[i][i + p] < best && periodic(i, j, p)) {
+                                    best = 1 + cost[i][i + p];
+                                    period[i][j] = p;
+                                }
+                            }
+                        }
+                        cost[i][j] = best;
+                    }
+                }
+            }
+
+            private boolean periodic(int i, int j, int p) {
+                for (int k = i + p; k < j; k++)
+                    if (seq[k] != seq[k - p])
+                        return false;
+                return true;
+            }
+
+            int cost() { return seq.length == 0 ? 0 : cost[0][seq.length]; }
+
+            void emit(List<String> lines) {
+                if (seq.length > 0)
+                    emit(0, seq.length, lines);
+            }
+
+            private void emit(int i, int j, List<String> lines) {
+                if (j - i == 1) {
+                    lines.add(seq[i] < 4 ? ACTIONS[seq[i]] : "CALL F" + (seq[i] - 3));
+                } else if (period[i][j] > 0) {
+                    int p = period[i][j];
+                    lines.add("REPEAT " + (j - i) / p);
+                    emit(i, i + p, lines);
+                    lines.add("ENDREPEAT");
+                } else {
+                    emit(i, split[i][j], lines);
+                    emit(split[i][j], j, lines);
+                }
+            }
+        }
+    }
+}
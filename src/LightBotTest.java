@@ -1,3 +1,6 @@
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -740,4 +743,1503 @@ public class LightBotTest {
         }, lb.getMap());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void test13() {
+        String[] map = {
+                "...OOO..",
+                "........",
+                "...OOO..",
+                "........",
+                "...OOO..",
+                "........",
+                "...OOO..",
+                "........",
+                "...OOO..",
+                "...R....",
+        };
+        String[][] programs = {
+                {"LEFT",
+                 "REPEAT 4",
+                    "FORWARD", "RIGHT",
+                    "REPEAT 3", "LIGHT", "FORWARD", "ENDREPEAT",
+                    "RIGHT", "RIGHT",
+                    "REPEAT 3", "FORWARD", "ENDREPEAT",
+                    "RIGHT", "FORWARD",
+                 "ENDREPEAT"},
+                {"FUNCTION LINE(N)",
+                    "REPEAT N", "LIGHT", "FORWARD", "ENDREPEAT",
+                 "ENDFUNCTION",
+                 "FUNCTION SQUARE(N)",
+                    "REPEAT 4", "CALL LINE(N)", "RIGHT", "ENDREPEAT",
+                 "ENDFUNCTION",
+                 "CALL SQUARE(3)", "LEFT", "CALL SQUARE(5)", "REPEAT 0", "LIGHT", "ENDREPEAT"},
+                {"FUNCTION A(K)", "CALL B", "ENDFUNCTION",
+                 "FUNCTION B", "REPEAT K", "FORWARD", "LIGHT", "ENDREPEAT", "ENDFUNCTION",
+                 "LEFT", "CALL A(7)", "CALL NOEXISTE", "RIGHT", "CALL A(2)"},
+        };
+
+        for (String[] program : programs) {
+            LightBot tree = new LightBot(map);
+            tree.setEngine(LightBot.Engine.TREE);
+            tree.runProgram(program);
+            LightBot bytecode = new LightBot(map);
+            bytecode.setEngine(LightBot.Engine.BYTECODE);
+            bytecode.runProgram(program);
+
+            assertArrayEquals(tree.getRobotPosition(), bytecode.getRobotPosition());
+            assertArrayEquals(tree.getMap(), bytecode.getMap());
+        }
+    }
+
+    @Test
+    public void test14() {
+        String[] map = {
+                "..O.#..O",
+                "R..O...O",
+                ".....O..",
+                "....#...",
+                "O.......",
+        };
+        String[][] programs = {
+                {"REPEAT 100003", "FORWARD", "LIGHT", "ENDREPEAT"},
+                {"REPEAT 99991", "FORWARD", "FORWARD", "RIGHT", "FORWARD", "LIGHT", "LEFT", "ENDREPEAT"},
+                {"FUNCTION ZIGZAG(N)",
+                    "REPEAT N", "FORWARD", "LIGHT", "RIGHT", "FORWARD", "LEFT", "ENDREPEAT",
+                 "ENDFUNCTION",
+                 "REPEAT 1000", "CALL ZIGZAG(7)", "RIGHT", "ENDREPEAT"},
+        };
+
+        for (String[] program : programs) {
+            LightBot tree = new LightBot(map);
+            tree.setEngine(LightBot.Engine.TREE);
+            tree.runProgram(program);
+            LightBot bytecode = new LightBot(map);
+            bytecode.runProgram(program);
+
+            assertArrayEquals(tree.getRobotPosition(), bytecode.getRobotPosition());
+            assertArrayEquals(tree.getMap(), bytecode.getMap());
+        }
+
+        LightBot lb = new LightBot(map);
+        lb.runProgram(new String[]{
+                "REPEAT 2000000000", "FORWARD", "LIGHT", "ENDREPEAT",
+                "RIGHT",
+                "REPEAT 2000000001", "FORWARD", "ENDREPEAT",
+        });
+
+        assertArrayEquals(new int[]{0,2}, lb.getRobotPosition());
+        assertArrayEquals(new String[]{
+                "..O.#..O",
+                "xxxXxxxX",
+                ".....O..",
+                "....#...",
+                "O.......",
+        }, lb.getMap());
+    }
+
+    @Test
+    public void test15() {
+        String[] program = {
+                "FUNCTION LINE(N)",
+                    "REPEAT N", "LIGHT", "FORWARD", "ENDREPEAT",
+                "ENDFUNCTION",
+                "REPEAT 4", "CALL LINE(3)", "RIGHT", "ENDREPEAT",
+        };
+        List<String[]> maps = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String[] map = {"......", "......", "......", "......", "......"};
+            char[] row = map[i % 5].toCharArray();
+            row[i % 6] = "RDLU".charAt(i % 4);
+            map[i % 5] = new String(row);
+            maps.add(map);
+        }
+
+        List<BatchResult> results = LightBot.runBatch(program, maps);
+
+        assertEquals(maps.size(), results.size());
+        for (int i = 0; i < maps.size(); i++) {
+            LightBot lb = new LightBot(maps.get(i));
+            lb.runProgram(program);
+            assertArrayEquals(lb.getRobotPosition(), results.get(i).getRobotPosition());
+            assertArrayEquals(lb.getMap(), results.get(i).getMap());
+        }
+    }
+
+    @Test
+    public void test16() {
+        String[] source = {
+                "FUNCTION FW(N)",
+                    "REPEAT N", "FORWARD", "ENDREPEAT",
+                "ENDFUNCTION",
+                "CALL FW(3)", "RIGHT", "CALL FW(2)", "LIGHT",
+        };
+        Program program = LightBot.compile(source);
+        assertSame(program, LightBot.compile(source.clone()));
+
+        LightBot lb = new LightBot(new String[]{
+                "R.....",
+                "......",
+                "...O..",
+        });
+        lb.run(program);
+        assertArrayEquals(new int[]{3,2}, lb.getRobotPosition());
+
+        lb.reset();
+        lb.run(program);
+        assertArrayEquals(new int[]{3,2}, lb.getRobotPosition());
+        assertArrayEquals(new String[]{
+                "......",
+                "......",
+                "...X..",
+        }, lb.getMap());
+
+        LightBot other = new LightBot(new String[]{
+                "......",
+                ".D....",
+                "......",
+        });
+        other.run(program);
+        assertArrayEquals(new int[]{5,1}, other.getRobotPosition());
+    }
+
+    @Test
+    public void test17() {
+        String[] map = {
+                "OOOO#OOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOO",
+                "R...............................................................x",
+                "OOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOO*OOOOOX",
+        };
+        String[][] programs = {
+                {"LEFT", "FORWARD", "RIGHT", "REPEAT 70", "LIGHT", "FORWARD", "ENDREPEAT"},
+                {"RIGHT", "FORWARD", "LEFT", "REPEAT 130", "LIGHT", "FORWARD", "ENDREPEAT",
+                 "RIGHT", "RIGHT", "FORWARD", "FORWARD", "LIGHT"},
+        };
+
+        LightBot packed = new LightBot(map, LightBot.Backend.BITS);
+        for (String[] program : programs) {
+            LightBot chars = new LightBot(map, LightBot.Backend.CHARS);
+            chars.runProgram(program);
+            packed.reset();
+            assertEquals(map.length, packed.getMapRows().size());
+            packed.runProgram(program);
+
+            assertArrayEquals(chars.getRobotPosition(), packed.getRobotPosition());
+            assertArrayEquals(chars.getMap(), packed.getMap());
+        }
+
+        packed.reset();
+        assertEquals(map[0], packed.getMapRows().get(0));
+        assertEquals(map[1].replace('R', '.'), packed.getMapRows().get(1));
+        assertEquals(map[2], packed.getMapRows().get(2));
+    }
+
+    @Test
+    public void test18() {
+        String[] map = {
+                "R.......",
+                "........",
+        };
+        for (LightBot.Engine engine : LightBot.Engine.values()) {
+            LightBot lb = new LightBot(map);
+            lb.setEngine(engine);
+            lb.runProgram(new String[]{
+                    "FUNCTION OUTER(N, M)", "CALL INNER(M)", "ENDFUNCTION",
+                    "FUNCTION INNER(K)", "REPEAT N", "REPEAT K", "FORWARD", "ENDREPEAT", "ENDREPEAT", "LIGHT", "ENDFUNCTION",
+                    "CALL OUTER(2, 3)",
+                    "REPEAT 0", "CALL INNER(X)", "ENDREPEAT",
+            });
+            assertArrayEquals(new int[]{6,0}, lb.getRobotPosition());
+            assertEquals("......x.", lb.getMap()[0]);
+
+            try {
+                lb.runProgram(new String[]{"FORWARD", "REPEAT N", "FORWARD", "ENDREPEAT"});
+                fail();
+            } catch (IllegalArgumentException e) {
+                assertEquals("Parámetro o valor inválido: N", e.getMessage());
+            }
+            assertArrayEquals(new int[]{7,0}, lb.getRobotPosition());
+        }
+    }
+
+    @Test
+    public void test19() {
+        String[] map = {
+                "R...........",
+                "............",
+                "............",
+                "............",
+        };
+        String[] program = {
+                "FUNCTION LINE(N)",
+                    "REPEAT N > 0", "LIGHT", "FORWARD", "CALL LINE(N - 1)", "ENDREPEAT",
+                "ENDFUNCTION",
+                "FUNCTION STAIRS(N, W)",
+                    "REPEAT N*2 - (N+2) % 3", "CALL LINE(W / 2)", "RIGHT", "FORWARD", "LEFT", "ENDREPEAT",
+                "ENDFUNCTION",
+                "CALL LINE(2*3 - 1)",
+                "CALL STAIRS(2, -(-4))",
+        };
+        for (LightBot.Engine engine : LightBot.Engine.values()) {
+            LightBot lb = new LightBot(map);
+            lb.setEngine(engine);
+            lb.runProgram(program);
+
+            assertArrayEquals(new int[]{11,3}, lb.getRobotPosition());
+            assertArrayEquals(new String[]{
+                    "xxxxxxx.....",
+                    ".......xx...",
+                    ".........xx.",
+                    "............",
+            }, lb.getMap());
+
+            try {
+                lb.runProgram(new String[]{"REPEAT 10 / (3 - 3)", "FORWARD", "ENDREPEAT"});
+                fail();
+            } catch (IllegalArgumentException e) {
+                assertEquals("División por cero", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void test20() {
+        LightBot lb = new LightBot(new String[]{
+                "R......",
+                ".......",
+        });
+        lb.runProgram(new String[]{
+                "FUNCTION DOWN(N)",
+                    "REPEAT N > 0", "FORWARD", "CALL DOWN(N - 1)", "ENDREPEAT",
+                "ENDFUNCTION",
+                "CALL DOWN(200000)",
+                "LIGHT",
+        });
+        assertArrayEquals(new int[]{200000 % 7,0}, lb.getRobotPosition());
+
+        String[] forever = {
+                "FUNCTION A", "FORWARD", "CALL B", "ENDFUNCTION",
+                "FUNCTION B", "CALL A", "ENDFUNCTION",
+                "CALL A",
+        };
+        lb.setCallStackBudget(1 << 20);
+        try {
+            lb.runProgram(forever);
+            fail();
+        } catch (CallDepthExceededException e) {
+            assertTrue(e.getDepth() > 10000);
+        }
+
+        lb.reset();
+        lb.setEngine(LightBot.Engine.TREE);
+        try {
+            lb.runProgram(forever);
+            fail();
+        } catch (CallDepthExceededException e) {
+            assertTrue(e.getDepth() > 0);
+        }
+    }
+
+    @Test
+    public void test21() {
+        String[] map = {
+                "R..#....",
+                "...O....",
+        };
+        String[] program = {
+                "FUNCTION SIDE(N)", "REPEAT N", "FORWARD", "LIGHT", "ENDREPEAT", "RIGHT", "ENDFUNCTION",
+                "REPEAT 3", "CALL SIDE(5)", "ENDREPEAT",
+                "REPEAT 100000", "FORWARD", "LEFT", "FORWARD", "ENDREPEAT",
+        };
+        // 3 vueltas + 3 llamadas + 3 * (5 vueltas + 10 acciones + RIGHT) + 100000 * 4
+        long total = 3 + 3 + 3 * 16 + 100000 * 4;
+        for (LightBot.Engine engine : LightBot.Engine.values()) {
+            LightBot lb = new LightBot(map);
+            lb.setEngine(engine);
+            RunResult result = lb.runProgram(program, RunLimits.NONE);
+            assertEquals(RunResult.Status.COMPLETED, result.getStatus());
+            assertEquals(total, result.getSteps());
+            int[] finalPosition = lb.getRobotPosition();
+            String[] finalMap = lb.getMap();
+
+            for (long max : new long[]{0, 1, 7, 30, 1000, 123457, total - 1, total}) {
+                LightBot limited = new LightBot(map);
+                limited.setEngine(engine);
+                result = limited.runProgram(program, RunLimits.NONE.withMaxSteps(max));
+                assertEquals(max, result.getSteps());
+                assertEquals(max == total ? RunResult.Status.COMPLETED : RunResult.Status.STEPS_EXCEEDED,
+                        result.getStatus());
+            }
+            assertArrayEquals(finalPosition, lb.getRobotPosition());
+            assertArrayEquals(finalMap, lb.getMap());
+
+            // Las dos ejecuciones a medias tienen que acabar en el mismo sitio con los dos motores
+            LightBot tree = new LightBot(map);
+            tree.setEngine(LightBot.Engine.TREE);
+            tree.runProgram(program, RunLimits.NONE.withMaxSteps(40));
+            LightBot bytecode = new LightBot(map);
+            bytecode.runProgram(program, RunLimits.NONE.withMaxSteps(40));
+            assertArrayEquals(tree.getRobotPosition(), bytecode.getRobotPosition());
+            assertArrayEquals(tree.getMap(), bytecode.getMap());
+        }
+
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        LightBot lb = new LightBot(map);
+        RunResult result = lb.runProgram(new String[]{"REPEAT 2000000000", "LIGHT", "FORWARD", "RIGHT", "ENDREPEAT"},
+                RunLimits.NONE.withCancellation(token));
+        assertEquals(RunResult.Status.CANCELLED, result.getStatus());
+
+        assertEquals(0, result.getSteps());
+
+        result = lb.runProgram(new String[]{"REPEAT 5", "FORWARD", "ENDREPEAT"},
+                RunLimits.NONE.withTimeout(java.time.Duration.ZERO));
+        assertEquals(RunResult.Status.TIME_EXCEEDED, result.getStatus());
+        assertEquals(0, result.getSteps());
+    }
+
+    @Test
+    public void test22() {
+        String[] map = {
+                "R..#",
+                "....",
+                "O...",
+        };
+        String[] program = {
+                "FUNCTION STEP(N)",
+                    "REPEAT N", "FORWARD", "ENDREPEAT", "LIGHT",
+                "ENDFUNCTION",
+                "FUNCTION TWICE(N)", "CALL STEP(N)", "CALL STEP(N)", "ENDFUNCTION",
+                "CALL TWICE(3)", "RIGHT", "FORWARD", "FORWARD", "LIGHT",
+        };
+        LightBot lb = new LightBot(map);
+        assertNull(lb.getMetrics());
+        lb.setMetricsEnabled(true);
+        lb.runProgram(program);
+        MetricsSnapshot metrics = lb.getMetrics();
+
+        // Las vueltas contra la pared se repiten y el avance rápido se salta alguna
+        assertEquals(8 - metrics.getFastForwardedIterations(), (long) metrics.getOpcodeCounts().get("FORWARD"));
+        assertEquals(Long.valueOf(3), metrics.getOpcodeCounts().get("LIGHT"));
+        assertEquals(Long.valueOf(3), metrics.getOpcodeCounts().get("CALL"));
+        assertEquals(Long.valueOf(1), metrics.getFunctionCalls().get("TWICE"));
+        assertEquals(Long.valueOf(2), metrics.getFunctionCalls().get("STEP"));
+        assertTrue(metrics.getFunctionNanos().get("TWICE") >= metrics.getFunctionNanos().get("STEP"));
+        assertEquals(2, metrics.getMaxCallDepth());
+        assertEquals(6, metrics.getLoopIterations());
+        // Una vez en la primera llamada y tres en la segunda, menos las vueltas saltadas
+        assertEquals(4 - metrics.getFastForwardedIterations(), metrics.getBlockedForwards());
+        assertEquals(2, metrics.getLightsToggled());
+
+        // Las vueltas saltadas por el avance rápido cuentan como vueltas
+        lb.setMetricsEnabled(true);
+        lb.runProgram(new String[]{"REPEAT 100000", "FORWARD", "ENDREPEAT"});
+        metrics = lb.getMetrics();
+        assertEquals(100000, metrics.getLoopIterations());
+        assertTrue(metrics.getFastForwardedIterations() > 0);
+        assertEquals(100000 - metrics.getFastForwardedIterations(),
+                (long) metrics.getOpcodeCounts().get("FORWARD"));
+
+        lb.setMetricsEnabled(false);
+        lb.runProgram(program);
+        assertNull(lb.getMetrics());
+    }
+
+    @Test
+    public void test23() {
+        String[] map = {
+                "R...#..O",
+                "...O...O",
+                ".....O..",
+                "....#...",
+                "O.......",
+        };
+        String[] program = {
+                "FUNCTION ZIGZAG(N)",
+                    "REPEAT N", "FORWARD", "LIGHT", "RIGHT", "FORWARD", "LEFT", "ENDREPEAT",
+                "ENDFUNCTION",
+                "REPEAT 3000", "CALL ZIGZAG(5)", "RIGHT", "LIGHT", "ENDREPEAT",
+        };
+        long[] sizes = new long[2];
+        for (LightBot.Engine engine : LightBot.Engine.values()) {
+            LightBot lb = new LightBot(map);
+            lb.setEngine(engine);
+            lb.startTrace();
+            RunResult result = lb.runProgram(program, RunLimits.NONE);
+            ExecutionTrace trace = lb.stopTrace();
+            assertNull(lb.stopTrace());
+            assertEquals(result.getSteps(), trace.getSteps());
+            assertTrue(trace.getEncodedSize() < trace.getSteps());
+            sizes[engine.ordinal()] = trace.getEncodedSize();
+
+            TraceReplayer replayer = new TraceReplayer(trace);
+            LightBot replayed = replayer.seek(trace.getSteps());
+            assertArrayEquals(lb.getRobotPosition(), replayed.getRobotPosition());
+            assertArrayEquals(lb.getMap(), replayed.getMap());
+
+            // Hacia atrás y hacia delante: el estado coincide con una ejecución cortada en ese paso
+            for (long step : new long[]{100000, 5, 0, 4095, 4096, 4097, 77777, 77778, 12345}) {
+                LightBot limited = new LightBot(map);
+                limited.runProgram(program, RunLimits.NONE.withMaxSteps(step));
+                replayed = replayer.seek(step);
+                assertEquals(step, replayer.getStep());
+                assertArrayEquals(limited.getRobotPosition(), replayed.getRobotPosition());
+                assertArrayEquals(limited.getMap(), replayed.getMap());
+            }
+
+            // Una instantánea pasa las casillas encendidas a LitNode: volver atrás las apaga igual
+            replayer.seek(90000).snapshot();
+            LightBot limited = new LightBot(map);
+            limited.runProgram(program, RunLimits.NONE.withMaxSteps(3));
+            assertArrayEquals(limited.getMap(), replayer.seek(3).getMap());
+        }
+        assertEquals(sizes[0], sizes[1]);
+
+        // La grabación empieza en el estado actual del robot, no en el inicial
+        LightBot lb = new LightBot(map);
+        lb.runProgram(new String[]{"FORWARD", "LIGHT", "RIGHT"});
+        lb.startTrace();
+        lb.runProgram(new String[]{"FORWARD", "LIGHT"});
+        ExecutionTrace trace = lb.stopTrace();
+        TraceReplayer replayer = new TraceReplayer(trace);
+        assertArrayEquals(new int[]{1, 0}, replayer.seek(0).getRobotPosition());
+        assertEquals(".x..#..O", replayer.seek(0).getMap()[0]);
+        assertArrayEquals(lb.getMap(), replayer.seek(2).getMap());
+        try {
+            replayer.seek(3);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Más allá del final de la traza
+        }
+    }
+
+    @Test
+    public void test24() {
+        String[] map = {
+                "R...#..O",
+                "...O...O",
+                ".....O..",
+                "....#...",
+                "O.......",
+        };
+        String[] program = {
+                "FUNCTION SPIRAL(N)",
+                    "REPEAT N", "FORWARD", "LIGHT", "ENDREPEAT", "RIGHT",
+                    "REPEAT N > 1", "CALL SPIRAL(N - 1)", "ENDREPEAT",
+                "ENDFUNCTION",
+                "REPEAT 3", "CALL SPIRAL(6)", "LEFT", "ENDREPEAT",
+        };
+        for (LightBot.Backend backend : LightBot.Backend.values()) {
+            LightBot full = new LightBot(map, backend);
+            RunResult total = full.runProgram(program, RunLimits.NONE);
+
+            // Se detiene a medias dentro de la recursión, se guarda y se continúa dos veces
+            LightBot lb = new LightBot(map, backend);
+            RunResult result = lb.runProgram(program, RunLimits.NONE.withMaxSteps(40));
+            assertTrue(lb.canResume());
+            LightBotSnapshot snap = lb.snapshot();
+            assertTrue(snap.canResume());
+            assertEquals(40, snap.getSteps());
+            for (int i = 0; i < 2; i++) {
+                lb.restore(snap);
+                assertArrayEquals(snap.getRobotPosition(), lb.getRobotPosition());
+                result = lb.resume(RunLimits.NONE.withMaxSteps(70));
+                assertEquals(RunResult.Status.STEPS_EXCEEDED, result.getStatus());
+                result = lb.resume(RunLimits.NONE);
+                assertEquals(RunResult.Status.COMPLETED, result.getStatus());
+                assertEquals(total.getSteps(), result.getSteps());
+                assertArrayEquals(full.getRobotPosition(), lb.getRobotPosition());
+                assertArrayEquals(full.getMap(), lb.getMap());
+                assertFalse(lb.canResume());
+            }
+
+            // Varias continuaciones desde el mismo prefijo
+            String[] prefix = {"FORWARD", "LIGHT", "RIGHT", "FORWARD", "LIGHT"};
+            String[][] continuations = {
+                    {"REPEAT 5", "FORWARD", "LIGHT", "ENDREPEAT"},
+                    {"LEFT", "REPEAT 7", "FORWARD", "LIGHT", "ENDREPEAT"},
+                    {"RIGHT", "RIGHT", "FORWARD", "LIGHT"},
+            };
+            lb = new LightBot(map, backend);
+            lb.runProgram(prefix);
+            LightBotSnapshot afterPrefix = lb.snapshot();
+            assertFalse(afterPrefix.canResume());
+            for (String[] continuation : continuations) {
+                lb.restore(afterPrefix);
+                lb.runProgram(continuation);
+                LightBot expected = new LightBot(map, backend);
+                expected.runProgram(prefix);
+                expected.runProgram(continuation);
+                assertArrayEquals(expected.getRobotPosition(), lb.getRobotPosition());
+                assertArrayEquals(expected.getMap(), lb.getMap());
+            }
+
+            // Instantáneas en ramas distintas, con casillas encendidas después de cada una que no
+            // llegan a ninguna instantánea: se puede ir de una a otra en cualquier orden
+            LightBotSnapshot[] branches = new LightBotSnapshot[continuations.length];
+            String[][] branchMaps = new String[continuations.length][];
+            for (int i = 0; i < continuations.length; i++) {
+                lb.restore(afterPrefix);
+                lb.runProgram(continuations[i]);
+                branches[i] = lb.snapshot();
+                branchMaps[i] = lb.getMap();
+                lb.runProgram(new String[]{"LEFT", "FORWARD", "LIGHT", "FORWARD", "LIGHT"});
+            }
+            for (int i : new int[]{2, 0, 1, 1, 2, 0}) {
+                lb.restore(branches[i]);
+                assertArrayEquals(branchMaps[i], lb.getMap());
+            }
+            lb.reset();
+            assertArrayEquals(new LightBot(map, backend).getMap(), lb.getMap());
+            lb.restore(afterPrefix);
+            assertEquals(".x..#..O", lb.getMap()[0]);
+        }
+
+        LightBot lb = new LightBot(map);
+        try {
+            lb.restore(new LightBot(map).snapshot());
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Instantánea de otro LightBot
+        }
+        try {
+            lb.resume(RunLimits.NONE);
+            fail();
+        } catch (IllegalStateException e) {
+            // No hay nada que continuar
+        }
+    }
+
+    @Test
+    public void test25() {
+        String[] maps = {
+                "R..O\n....\nO..O",
+                "..O.#\nR#...\n.O.#O\n...O.",
+                "O.....R.....O",
+                "R......O\n.######.\nO......O",
+        };
+        for (String map : maps) {
+            String[] actions = LightBotSolver.solve(map, 0, false);
+            String[] program = LightBotSolver.solve(map);
+            for (String[] solution : new String[][]{actions, program}) {
+                LightBot lb = new LightBot(map);
+                lb.runProgram(solution);
+                for (String row : lb.getMap())
+                    assertEquals(-1, row.indexOf('O'));
+            }
+            assertEquals(shortestSolution(map), actions.length);
+            assertTrue(instructionCount(program) <= actions.length);
+        }
+
+        // Una fila de objetivos se resume en un REPEAT
+        assertArrayEquals(new String[]{"REPEAT 11", "FORWARD", "LIGHT", "ENDREPEAT"},
+                LightBotSolver.solve("ROOOOOOOOOOO"));
+
+        // Candidatas a función: repetidas sin solaparse, de más a menos ahorro estimado
+        // (apariciones * longitud - apariciones - longitud) y, a igual ahorro, por sus fichas
+        List<int[]> candidates = LightBotSolver.Compressor.candidates(new int[]{0, 1, 3, 2, 0, 1, 3, 2, 0, 1, 3, 1});
+        assertArrayEquals(new int[]{0, 1, 3}, candidates.get(0));
+        assertArrayEquals(new int[]{0, 1, 3, 2}, candidates.get(1));
+        assertArrayEquals(new int[]{1, 3, 2, 0}, candidates.get(2));
+        assertTrue(LightBotSolver.Compressor.candidates(new int[]{0, 1, 2, 3}).isEmpty());
+
+        assertNull(LightBotSolver.solve("R.#O#"));
+        assertEquals(0, LightBotSolver.solve("R.x.X").length);
+    }
+
+    // Instrucciones de un programa sin contar los cierres ni las cabeceras de las funciones
+    private static int instructionCount(String[] program) {
+        int count = 0;
+        for (String line : program)
+            if (!line.startsWith("END") && !line.startsWith("FUNCTION"))
+                count++;
+        return count;
+    }
+
+    // Búsqueda en anchura directa sobre (casilla, dirección, objetivos encendidos) con los
+    // movimientos de LightBot, para comprobar que el solucionador da la secuencia mínima
+    private static int shortestSolution(String map) {
+        String[] rows = map.split("\n");
+        int h = rows.length, w = rows[0].length();
+        List<Integer> targets = new ArrayList<>();
+        int start = -1;
+        for (int y = 0; y < h; y++)
+            for (int x = 0; x < w; x++) {
+                char c = rows[y].charAt(x);
+                if (c == 'O') targets.add(y * w + x);
+                if ("RDLU".indexOf(c) >= 0) start = (y * w + x) * 4 + "RDLU".indexOf(c);
+            }
+        int[] dx = {1, 0, -1, 0}, dy = {0, 1, 0, -1};
+        int goal = (1 << targets.size()) - 1;
+        java.util.Map<Long, Integer> seen = new java.util.HashMap<>();
+        java.util.ArrayDeque<Long> queue = new java.util.ArrayDeque<>();
+        seen.put((long) start, 0);
+        queue.add((long) start);
+        while (!queue.isEmpty()) {
+            long s = queue.poll();
+            int mask = (int) (s >>> 32), pos = (int) s, cell = pos / 4, dir = pos % 4;
+            if (mask == goal)
+                return seen.get(s);
+            int x = (cell % w + dx[dir] + w) % w, y = (cell / w + dy[dir] + h) % h;
+            int t = targets.indexOf(cell);
+            long[] next = {
+                    "#".indexOf(rows[y].charAt(x)) < 0 ? (long) mask << 32 | (y * w + x) * 4 + dir : s,
+                    (long) mask << 32 | cell * 4 + (dir + 3) % 4,
+                    (long) mask << 32 | cell * 4 + (dir + 1) % 4,
+                    t >= 0 ? (long) (mask | 1 << t) << 32 | pos : s,
+            };
+            for (long n : next) {
+                if (!seen.containsKey(n)) {
+                    seen.put(n, seen.get(s) + 1);
+                    queue.add(n);
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void test26() throws java.io.IOException {
+        String[] map = {
+                "R...#..O",
+                "...O...O",
+                ".....O..",
+        };
+        // La llamada aparece antes que la función y la función se redefine después
+        String text = "CALL AVANÇA(3)\r\n"
+                + "REPEAT 2\n  CALL GIRA\n  LIGHT\nENDREPEAT\n"
+                + "FUNCTION AVANÇA(N)\nREPEAT N\nFORWARD\nENDREPEAT\nENDFUNCTION\n"
+                + "FUNCTION GIRA\nLEFT\nENDFUNCTION\n"
+                + "FUNCTION GIRA\nRIGHT\nFORWARD\nENDFUNCTION";
+        LightBot expected = new LightBot(map);
+        expected.runProgram(text.split("\r?\n"));
+        assertArrayEquals(new int[]{2, 1}, expected.getRobotPosition());
+
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("lightbot", ".txt");
+        try {
+            java.nio.file.Files.write(file, text.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+            Program[] programs = {
+                    Program.parse(new java.io.StringReader(text)),
+                    Program.parse(new java.io.ByteArrayInputStream(text.getBytes(java.nio.charset.StandardCharsets.UTF_8))),
+                    Program.parse(file),
+            };
+            for (Program program : programs) {
+                for (LightBot.Engine engine : LightBot.Engine.values()) {
+                    LightBot lb = new LightBot(map);
+                    lb.setEngine(engine);
+                    lb.run(program);
+                    assertArrayEquals(expected.getRobotPosition(), lb.getRobotPosition());
+                    assertArrayEquals(expected.getMap(), lb.getMap());
+                }
+            }
+        } finally {
+            java.nio.file.Files.delete(file);
+        }
+
+        // Las rarezas del analizador por líneas se mantienen: una FUNCTION dentro de otra corta
+        // la de fuera y lo que sigue a su ENDFUNCTION es parte del programa principal
+        LightBot lb = new LightBot(map);
+        lb.runProgram(new String[]{"FUNCTION A", "FORWARD", "FUNCTION B", "LEFT", "ENDFUNCTION",
+                "RIGHT", "ENDFUNCTION", "CALL A", "CALL B", "FORWARD"});
+        assertArrayEquals(new int[]{0, 2}, lb.getRobotPosition());
+    }
+
+    @Test
+    public void test27() throws java.io.IOException {
+        String[] map = {
+                "..O.#..O",
+                "R..O..=O",
+                ".....O..",
+                "....#...",
+        };
+        String[] program = {
+                "FUNCTION ZIGZAG(N)",
+                    "REPEAT N", "FORWARD", "LIGHT", "RIGHT", "FORWARD", "LEFT", "ENDREPEAT",
+                "ENDFUNCTION",
+                "REPEAT 50", "CALL ZIGZAG(3)", "LIGHT", "RIGHT", "ENDREPEAT",
+        };
+        LightBot expected = new LightBot(map);
+        expected.runProgram(program);
+
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("lightbot", ".map");
+        try {
+            for (String text : new String[]{String.join("\n", map), String.join("\n", map) + "\n",
+                    String.join("\r\n", map), String.join("\r\n", map) + "\r\n"}) {
+                java.nio.file.Files.write(file, text.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+                for (LightBot.Engine engine : LightBot.Engine.values()) {
+                    LightBot lb = new LightBot(file);
+                    lb.setEngine(engine);
+                    assertArrayEquals(new LightBot(map).getMap(), lb.getMap());
+                    LightBotSnapshot start = lb.snapshot();
+                    lb.runProgram(program);
+                    assertArrayEquals(expected.getRobotPosition(), lb.getRobotPosition());
+                    assertArrayEquals(expected.getMap(), lb.getMap());
+                    lb.restore(start);
+                    assertArrayEquals(new LightBot(map).getMap(), lb.getMap());
+                    lb.runProgram(program);
+                    lb.reset();
+                    assertArrayEquals(new LightBot(map).getMap(), lb.getMap());
+                }
+            }
+
+            java.nio.file.Files.write(file, "R..\n....\n...".getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+            try {
+                new LightBot(file);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // Filas de distinta longitud
+            }
+        } finally {
+            java.nio.file.Files.delete(file);
+        }
+
+        // El conjunto disperso de casillas encendidas se comporta como un HashSet
+        LongHashSet set = new LongHashSet();
+        java.util.Set<Long> reference = new java.util.HashSet<>();
+        java.util.Random random = new java.util.Random(7);
+        for (int i = 0; i < 200000; i++) {
+            long key = random.nextInt(5000) * 1000003L;
+            if (random.nextInt(3) == 0)
+                assertEquals(reference.remove(key), set.remove(key));
+            else
+                assertEquals(reference.add(key), set.add(key));
+            assertEquals(reference.size(), set.size());
+        }
+        for (long key = 0; key < 5000 * 1000003L; key += 1000003L)
+            assertEquals(reference.contains(key), set.contains(key));
+    }
+
+    @Test
+    public void test28() {
+        String[] map = {
+                "R..#",
+                "..O.",
+        };
+        String[] program = {
+                "REPEAT 2", "FORWARD", "ENDREPEAT", "RIGHT", "FORWARD", "LIGHT",
+                "REPEAT 200", "FORWARD", "ENDREPEAT", "LIGHT",
+                "RIGHT", "RIGHT", "REPEAT 300", "FORWARD", "ENDREPEAT", "LIGHT",
+        };
+        for (LightBot.Engine engine : LightBot.Engine.values()) {
+            LightBot lb = new LightBot(map, LightBot.Backend.SPARSE);
+            lb.setEngine(engine);
+            lb.runProgram(program);
+            // Sin bordes el robot no da la vuelta: sale del mapa por abajo y luego por arriba
+            assertArrayEquals(new int[]{2, -99}, lb.getRobotPosition());
+            assertArrayEquals(new String[]{"...#", "..X."}, lb.getMap());
+            assertArrayEquals(new String[]{".x."}, lb.getMap(1, 201, 3, 1));
+            assertArrayEquals(new String[]{".", "x", "."}, lb.getMap(2, -100, 1, 3));
+            lb.reset();
+            assertArrayEquals(new String[]{"."}, lb.getMap(2, 201, 1, 1));
+            assertArrayEquals(new int[]{0, 0}, lb.getRobotPosition());
+        }
+
+        // Las paredes del mapa inicial siguen bloqueando, y fuera de él no hay ninguna
+        LightBot lb = new LightBot(map, LightBot.Backend.SPARSE);
+        lb.runProgram(new String[]{"REPEAT 5", "FORWARD", "ENDREPEAT", "LEFT", "FORWARD", "LEFT", "REPEAT 1000000", "FORWARD", "ENDREPEAT"});
+        assertArrayEquals(new int[]{-999998, -1}, lb.getRobotPosition());
+
+        // En los mapas con bordes la vista da la vuelta igual que el robot
+        LightBot bounded = new LightBot(map);
+        assertArrayEquals(new String[]{"#...#"}, bounded.getMap(-1, 0, 5, 1));
+        assertArrayEquals(new String[]{"..O.", "...#"}, bounded.getMap(0, 1, 4, 2));
+
+        // La memoria crece con la zona encendida, no con el recorrido
+        SparseGrid grid = new SparseGrid(map, 4);
+        assertEquals(1, grid.chunkCount());
+        for (int i = 0; i < 1000; i++)
+            grid.isWalkable(i * 1000, -i * 1000);
+        assertEquals(1, grid.chunkCount());
+        assertTrue(grid.light(-1, -1));
+        assertFalse(grid.light(-1, -1));
+        assertTrue(grid.light(64, 0));
+        assertEquals(3, grid.chunkCount());
+        assertEquals('x', grid.cell(-1, -1));
+        grid.reset();
+        assertEquals('.', grid.cell(-1, -1));
+
+        // La tabla de trozos se comporta como un HashMap
+        LongHashMap<Long> table = new LongHashMap<>();
+        java.util.Map<Long, Long> reference = new java.util.HashMap<>();
+        java.util.Random random = new java.util.Random(11);
+        for (int i = 0; i < 100000; i++) {
+            long key = random.nextInt(20000) - 10000L;
+            table.put(key, (long) i);
+            reference.put(key, (long) i);
+        }
+        assertEquals(reference.size(), table.size());
+        for (long key = -10001; key <= 10001; key++)
+            assertEquals(reference.get(key), table.get(key));
+
+        try {
+            new LightBot(map, LightBot.Backend.SPARSE).startTrace();
+            fail();
+        } catch (IllegalStateException e) {
+            // Las trazas guardan las casillas con las dimensiones del mapa
+        }
+    }
+
+    @Test
+    public void test29() throws InterruptedException {
+        String[][] maps = {
+                {"R...#..O", "...O...O", ".....O..", "....#..."},
+                {"D..O#...", "...O....", "..x..O..", "O...#..X"},
+                {"R.O", "O.#", "..."},
+        };
+        String[][] programs = {
+                {"REPEAT 7", "FORWARD", "LIGHT", "RIGHT", "FORWARD", "LEFT", "ENDREPEAT"},
+                {"FUNCTION F(N)", "REPEAT N", "FORWARD", "LIGHT", "ENDREPEAT", "RIGHT", "ENDFUNCTION",
+                        "REPEAT 9", "CALL F(3)", "ENDREPEAT"},
+                {"FORWARD", "FUNCTION F(N)", "FORWARD", "ENDFUNCTION", "CALL F"},
+                {"REPEAT 100000", "FORWARD", "LIGHT", "LEFT", "ENDREPEAT"},
+        };
+        java.util.List<GradingJob> jobs = new java.util.ArrayList<>();
+        java.util.Random random = new java.util.Random(5);
+        for (int i = 0; i < 3000; i++) {
+            GradingJob job = new GradingJob(i, programs[random.nextInt(programs.length)], maps[random.nextInt(maps.length)]);
+            jobs.add(i % 7 == 0 ? job.withLimits(RunLimits.NONE.withMaxSteps(1000)) : job);
+        }
+        jobs.add(new GradingJob(jobs.size(), programs[0], new String[]{"...", "..."}));
+        jobs.add(new GradingJob(jobs.size(), new String[]{"CALL F"}, maps[0]));
+
+        GradingResult[] results = new GradingResult[jobs.size()];
+        // Cola muy pequeña para que los hilos y el envío se bloqueen a menudo
+        try (GradingEngine engine = new GradingEngine(4, 8)) {
+            long count = engine.gradeAll(jobs.iterator(), result -> {
+                assertNull(results[(int) result.getId()]);
+                results[(int) result.getId()] = result;
+            });
+            assertEquals(jobs.size(), count);
+        }
+        for (GradingJob job : jobs) {
+            GradingResult result = results[(int) job.getId()];
+            LightBot expected;
+            RunResult run;
+            try {
+                expected = new LightBot(job.getMap());
+                run = expected.run(job.program(), job.getLimits());
+            } catch (RuntimeException e) {
+                assertTrue(result.isError());
+                assertEquals(e.getMessage(), result.getError());
+                continue;
+            }
+            assertFalse(result.isError());
+            assertEquals(run.getStatus(), result.getRun().getStatus());
+            assertEquals(run.getSteps(), result.getRun().getSteps());
+            assertArrayEquals(expected.getRobotPosition(), result.getRobotPosition());
+            assertArrayEquals(expected.getMap(), result.getMap());
+        }
+        assertTrue(results[jobs.size() - 2].isError());
+
+        // Cargar otro mapa del mismo tamaño equivale a crear el LightBot desde cero
+        LightBot bot = new LightBot(maps[0], LightBot.Backend.BITS);
+        bot.runProgram(programs[0]);
+        assertTrue(bot.load(maps[1]));
+        assertArrayEquals(new LightBot(maps[1]).getMap(), bot.getMap());
+        assertArrayEquals(new int[]{0, 0}, bot.getRobotPosition());
+        assertFalse(bot.canResume());
+        assertFalse(bot.load(maps[2]));
+        assertArrayEquals(new LightBot(maps[1]).getMap(), bot.getMap());
+    }
+
+    @Test
+    public void test30() throws Exception {
+        String input = String.join("\n",
+                "CREATE",
+                "LOAD 1", "R..O", "....", "END",
+                "PROGRAM 1", "REPEAT 3", "FORWARD", "ENDREPEAT", "LIGHT", "END",
+                "STEP 1 2",
+                "STEP 1 10",
+                "MAP 1",
+                "STEP 1 1",
+                "RESET 1",
+                "RUN 1", "FORWARD", "LIGHT", "END",
+                "RUN 1", "CALL F", "FUNCTION F(N)", "ENDFUNCTION", "END",
+                "MAP 7",
+                "CLOSE 1",
+                "MAP 1") + "\n";
+        java.io.StringWriter out = new java.io.StringWriter();
+        try (SessionServer server = new SessionServer()) {
+            server.serve(new java.io.BufferedReader(new java.io.StringReader(input)), out);
+            assertEquals(0, server.getSessionCount());
+        }
+        assertEquals(String.join("\n",
+                "OK 1", "END",
+                "OK", "END",
+                "OK STEPS_EXCEEDED 0 0 0", "END",
+                "OK STEPS_EXCEEDED 2 1 0", "END",        // REPEAT y un FORWARD
+                "OK COMPLETED 7 3 0", "END",
+                "OK 3 0", "...X", "....", "END",
+                "ERROR No hay ninguna ejecución detenida que continuar", "END",
+                "OK", "END",
+                "OK COMPLETED 2 1 0", "END",
+                "ERROR Faltan argumentos en la llamada a F", "END",
+                "ERROR Sesión desconocida: 7", "END",
+                "OK", "END",
+                "ERROR Sesión desconocida: 1", "END") + "\n", out.toString());
+
+        // Muchas sesiones inactivas a la vez, y las mismas órdenes por HTTP
+        try (SessionServer server = new SessionServer()) {
+            server.startHttp(0);
+            // Por defecto solo escucha en la interfaz local
+            java.net.InetAddress address = server.getHttpAddress();
+            assertTrue(address.isLoopbackAddress());
+            String host = address instanceof java.net.Inet6Address ? "[" + address.getHostAddress() + "]" : address.getHostAddress();
+            String base = "http://" + host + ":" + server.getHttpPort() + "/sessions";
+            for (int i = 0; i < 500; i++)
+                assertEquals("OK " + (i + 1), server.execute("CREATE", java.util.Collections.emptyList()).get(0));
+            assertEquals("OK 501", http("POST", base, ""));
+            assertEquals("OK", http("PUT", base + "/501/map", "R.O\n...\n"));
+            assertEquals("OK COMPLETED 3 2 0", http("POST", base + "/501/run", "FORWARD\nFORWARD\nLIGHT\n"));
+            assertEquals("OK 2 0\n..X\n...", http("GET", base + "/501/map", null));
+            assertEquals("OK STEPS_EXCEEDED 0 2 0", http("POST", base + "/501/program", "LEFT\nLIGHT\n"));
+            assertEquals("OK STEPS_EXCEEDED 1 2 0", http("POST", base + "/501/step?n=1", ""));
+            assertEquals("OK", http("POST", base + "/501/reset", ""));
+            assertEquals("OK", http("DELETE", base + "/501", null));
+            assertEquals("ERROR Sesión desconocida: 501", http("GET", base + "/501/map", null));
+            assertEquals(500, server.getSessionCount());
+        }
+
+        // Máximo de sesiones: cuando no caben más se cierran las inactivas
+        try (SessionServer server = new SessionServer(RunLimits.NONE.withMaxSteps(1000), 2, java.time.Duration.ofMillis(200))) {
+            assertEquals("OK 1", server.execute("CREATE", java.util.Collections.emptyList()).get(0));
+            assertEquals("OK 2", server.execute("CREATE", java.util.Collections.emptyList()).get(0));
+            assertEquals("ERROR Demasiadas sesiones abiertas (2)", server.execute("CREATE", java.util.Collections.emptyList()).get(0));
+            Thread.sleep(300);
+            assertEquals("OK", server.execute("LOAD 2", java.util.Arrays.asList("R.O")).get(0));
+            assertEquals("OK 3", server.execute("CREATE", java.util.Collections.emptyList()).get(0));
+            assertEquals(2, server.getSessionCount());
+            assertEquals("ERROR Sesión desconocida: 1", server.execute("MAP 1", java.util.Collections.emptyList()).get(0));
+            assertEquals("OK 0 0", server.execute("MAP 2", java.util.Collections.emptyList()).get(0));
+        }
+    }
+
+    private static String http(String method, String url, String body) throws java.io.IOException {
+        java.net.HttpURLConnection connection = (java.net.HttpURLConnection) new java.net.URL(url).openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.getOutputStream().write(body.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        }
+        java.io.InputStream in = connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream();
+        String text = new String(in.readAllBytes(), java.nio.charset.StandardCharsets.UTF_8);
+        connection.disconnect();
+        return text.endsWith("\n") ? text.substring(0, text.length() - 1) : text;
+    }
+
+    @Test
+    public void test31() {
+        String[] map = {"......", "R....O", "......"};
+        Program program = LightBot.compile(new String[]{
+                "FUNCTION STEP2(N)",        // 1
+                "REPEAT N",                 // 2
+                "FORWARD",                  // 3
+                "ENDREPEAT",                // 4
+                "LIGHT",                    // 5
+                "ENDFUNCTION",              // 6
+                "RIGHT",                    // 7
+                "CALL STEP2(2)",            // 8
+                "LEFT",                     // 9
+                "CALL STEP2(1)",            // 10
+                "LIGHT",                    // 11
+        });
+        LightBot expected = new LightBot(map);
+        expected.run(program);
+
+        LightBot lb = new LightBot(map);
+        lb.setEngine(LightBot.Engine.TREE);
+        Debugger debugger = new Debugger(lb, program);
+        assertEquals(LightBot.Engine.TREE, lb.getEngine());
+        assertTrue(debugger.isPaused());
+        assertEquals(7, debugger.getLine());
+        assertNull(debugger.getFunction());
+        assertEquals(RunResult.Status.STEPS_EXCEEDED, debugger.step().getStatus());
+        assertEquals(8, debugger.getLine());
+        assertEquals(1, debugger.getSteps());
+        debugger.step();
+        assertEquals(2, debugger.getLine());
+        assertEquals("STEP2", debugger.getFunction());
+        assertEquals(1, debugger.getCallDepth());
+        assertEquals(java.util.Collections.singletonMap("N", 2), debugger.getFrameValues());
+
+        debugger.addBreakpoint(5);
+        RunResult result = debugger.run();
+        assertEquals(RunResult.Status.BREAKPOINT, result.getStatus());
+        assertEquals(5, debugger.getLine());
+        assertArrayEquals(new int[]{0, 0}, lb.getRobotPosition());  // da la vuelta por abajo
+        assertEquals(6, result.getSteps());  // RIGHT, CALL, dos vueltas y dos FORWARD
+        assertEquals(RunResult.Status.BREAKPOINT, debugger.run().getStatus());
+        assertEquals(5, debugger.getLine());
+        assertEquals(java.util.Collections.singletonMap("N", 1), debugger.getFrameValues());
+        debugger.removeBreakpoint(5);
+        assertEquals(RunResult.Status.COMPLETED, debugger.run().getStatus());
+        assertFalse(debugger.isPaused());
+        assertEquals(-1, debugger.getLine());
+        assertArrayEquals(expected.getMap(), lb.getMap());
+        assertArrayEquals(expected.getRobotPosition(), lb.getRobotPosition());
+        try {
+            debugger.step();
+            fail();
+        } catch (IllegalStateException e) {
+            // Ya ha terminado
+        }
+
+        // stepOver salta la llamada entera; runUntil para en la primera instrucción de la línea
+        lb.reset();
+        debugger = new Debugger(lb, program);
+        debugger.step();
+        result = debugger.stepOver();
+        assertEquals(RunResult.Status.STEPS_EXCEEDED, result.getStatus());
+        assertEquals(9, debugger.getLine());
+        assertEquals(0, debugger.getCallDepth());
+        assertEquals(RunResult.Status.BREAKPOINT, debugger.runUntil(11).getStatus());
+        assertEquals(11, debugger.getLine());
+        LightBot limited = new LightBot(map);
+        limited.run(program, RunLimits.NONE.withMaxSteps(debugger.getSteps()));
+        assertArrayEquals(limited.getMap(), lb.getMap());
+        assertArrayEquals(limited.getRobotPosition(), lb.getRobotPosition());
+        assertEquals(RunResult.Status.COMPLETED, debugger.step().getStatus());
+        assertArrayEquals(expected.getMap(), lb.getMap());
+
+        // Con recursión, stepOver espera a que vuelva la llamada de fuera
+        Program recursive = LightBot.compile(new String[]{
+                "FUNCTION R(N)", "FORWARD", "REPEAT N > 0", "CALL R(N - 1)", "ENDREPEAT", "ENDFUNCTION",
+                "CALL R(3)", "LIGHT"});
+        lb.reset();
+        debugger = new Debugger(lb, recursive);
+        assertEquals(RunResult.Status.STEPS_EXCEEDED, debugger.stepOver().getStatus());
+        assertEquals(8, debugger.getLine());
+        assertArrayEquals(new int[]{4, 1}, lb.getRobotPosition());
+        lb.reset();
+        debugger = new Debugger(lb, recursive);
+        debugger.addBreakpoint(2);
+        assertEquals(RunResult.Status.BREAKPOINT, debugger.stepOver().getStatus());
+        assertEquals(2, debugger.getCallDepth());
+        assertEquals(java.util.Collections.singletonMap("N", 2), debugger.getFrameValues());
+
+        // Los puntos de parada dentro de un bucle paran en todas las vueltas, aunque se repita
+        lb.reset();
+        debugger = new Debugger(lb, LightBot.compile(new String[]{"REPEAT 1000", "LEFT", "ENDREPEAT"}), RunLimits.NONE.withMaxSteps(1500));
+        debugger.addBreakpoint(2);
+        int stops = 0;
+        while (debugger.run().getStatus() == RunResult.Status.BREAKPOINT)
+            stops++;
+        assertEquals(750, stops);
+        assertEquals(RunResult.Status.STEPS_EXCEEDED, debugger.getLastResult().getStatus());
+        assertEquals(1500, debugger.getSteps());
+    }
+
+    @Test
+    public void test32() {
+        String[] map = {
+                "R..#....",
+                "........",
+                "...#..O.",
+                "........",
+        };
+        String[] program = {
+                "FUNCTION GO(N)", "REPEAT N", "FORWARD", "ENDREPEAT", "ENDFUNCTION",
+                "FORWARD", "FORWARD", "FORWARD", "LIGHT",
+                "RIGHT", "REPEAT 5", "FORWARD", "REPEAT 2", "FORWARD", "ENDREPEAT", "ENDREPEAT",
+                "LEFT", "REPEAT 13", "FORWARD", "ENDREPEAT", "LIGHT",
+                "CALL GO(6)", "RIGHT", "FORWARD", "FORWARD", "LIGHT",
+        };
+        Program compiled = LightBot.compile(program);
+        assertEquals(Bytecode.FORWARDS, compiled.getBytecode().code[0]);
+
+        // Con métricas cada FORWARD se ejecuta por separado: es la referencia
+        for (LightBot.Backend backend : LightBot.Backend.values()) {
+            LightBot reference = new LightBot(map, backend);
+            reference.setMetricsEnabled(true);
+            long total = reference.run(compiled, RunLimits.NONE).getSteps();
+            for (LightBot.Engine engine : LightBot.Engine.values()) {
+                LightBot lb = new LightBot(map, backend);
+                lb.setEngine(engine);
+                for (long max = 0; max <= total; max++) {
+                    reference.reset();
+                    lb.reset();
+                    RunResult expected = reference.run(compiled, RunLimits.NONE.withMaxSteps(max));
+                    RunResult result = lb.run(compiled, RunLimits.NONE.withMaxSteps(max));
+                    assertEquals(expected.getStatus(), result.getStatus());
+                    assertEquals(expected.getSteps(), result.getSteps());
+                    assertArrayEquals(reference.getRobotPosition(), lb.getRobotPosition());
+                    assertArrayEquals(reference.getMap(), lb.getMap());
+                }
+            }
+        }
+
+        // Una fila sin paredes da vueltas: mil millones de casillas en un solo paso del intérprete
+        LightBot lb = new LightBot(new String[]{"R......", "...#..."});
+        RunResult result = lb.run(LightBot.compile(new String[]{"REPEAT 1000000000", "FORWARD", "ENDREPEAT", "LIGHT"}), RunLimits.NONE);
+        assertEquals(2000000001L, result.getSteps());
+        assertArrayEquals(new int[]{1000000000 % 7, 0}, lb.getRobotPosition());
+        // Y una columna con pared se para delante de ella
+        lb.reset();
+        lb.runProgram(new String[]{"FORWARD", "FORWARD", "FORWARD", "RIGHT", "REPEAT 50", "FORWARD", "ENDREPEAT"});
+        assertArrayEquals(new int[]{3, 0}, lb.getRobotPosition());
+    }
+
+    @Test
+    public void test33() {
+        String[] map = {
+                "R.......",
+                "..#.....",
+                "......O.",
+                "....#...",
+                "O.......",
+        };
+        String[][] programs = {
+                {"FUNCTION LINE(N)", "REPEAT N", "FORWARD", "ENDREPEAT", "LIGHT", "ENDFUNCTION",
+                        "FUNCTION SQUARE", "REPEAT 4", "CALL LINE(4)", "RIGHT", "ENDREPEAT", "ENDFUNCTION",
+                        "FUNCTION UNUSED", "LEFT", "ENDFUNCTION",
+                        "CALL SQUARE", "CALL LINE(2 + 1)", "CALL SQUARE"},
+                // Recursión con argumentos constantes y con argumentos que no se conocen
+                {"FUNCTION R(N)", "FORWARD", "REPEAT N > 0", "CALL R(N - 1)", "ENDREPEAT", "LIGHT", "ENDFUNCTION",
+                        "FUNCTION S(N, M)", "REPEAT M", "CALL R(N)", "RIGHT", "ENDREPEAT", "ENDFUNCTION",
+                        "CALL R(3)", "CALL S(2, 3)", "CALL S(1, 2)"},
+                // G busca N en el frame de F: F no se puede integrar aunque sea pequeña
+                {"FUNCTION G", "REPEAT N", "FORWARD", "ENDREPEAT", "ENDFUNCTION",
+                        "FUNCTION F(N)", "CALL G", "LIGHT", "ENDFUNCTION",
+                        "CALL F(3)", "RIGHT", "CALL F(2)", "CALL MISSING"},
+        };
+        for (String[] source : programs) {
+            Program program = LightBot.compile(source);
+            LightBot reference = new LightBot(map);
+            reference.setMetricsEnabled(true);  // con métricas se ejecuta el bytecode sin optimizar
+            long total = reference.run(program, RunLimits.NONE).getSteps();
+            LightBot lb = new LightBot(map);
+            for (long max = 0; max <= total; max++) {
+                reference.reset();
+                lb.reset();
+                RunResult expected = reference.run(program, RunLimits.NONE.withMaxSteps(max));
+                RunResult result = lb.run(program, RunLimits.NONE.withMaxSteps(max));
+                assertEquals(expected.getStatus(), result.getStatus());
+                assertEquals(expected.getSteps(), result.getSteps());
+                assertArrayEquals(reference.getRobotPosition(), lb.getRobotPosition());
+                assertArrayEquals(reference.getMap(), lb.getMap());
+            }
+        }
+
+        // LINE(4), LINE(3) y SQUARE se integran y UNUSED desaparece: no queda ninguna llamada
+        Bytecode optimized = LightBot.compile(programs[0]).getOptimizedBytecode();
+        assertEquals(0, optimized.funcNames.length);
+        for (int pc = 0; pc < optimized.code.length; pc += optimized.length(pc))
+            assertNotEquals(Bytecode.CALL, optimized.code[pc]);
+        // F se especializa para cada valor de N pero sigue siendo una llamada con su frame
+        assertEquals(new java.util.HashSet<>(java.util.Arrays.asList("F(3)", "F(2)")),
+                new java.util.HashSet<>(java.util.Arrays.asList(LightBot.compile(programs[2]).getOptimizedBytecode().funcNames)));
+
+        // Las llamadas con argumentos de menos fallan igual
+        try {
+            new LightBot(map).runProgram(new String[]{"FUNCTION F(N)", "FORWARD", "ENDFUNCTION", "CALL F"});
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Faltan argumentos en la llamada a F", e.getMessage());
+        }
+    }
+
+    @Test
+    public void test34() {
+        String[] open = {
+                "R.........",
+                "..........",
+                "....O.....",
+                "..........",
+                "..........",
+        };
+        String[] walls = {
+                "R.........",
+                "......#...",
+                "....O.....",
+                "..#.......",
+                "..........",
+        };
+        // TOUR busca SIZE por nombre, así que SQUARE no se especializa y se llama de verdad
+        String[] program = {
+                "FUNCTION LINE(N)", "REPEAT N", "FORWARD", "ENDREPEAT", "LIGHT", "ENDFUNCTION",
+                "FUNCTION SQUARE(N)", "REPEAT 4", "CALL LINE(N)", "RIGHT", "ENDREPEAT", "ENDFUNCTION",
+                "FUNCTION TOUR", "REPEAT 12", "CALL SQUARE(SIZE)", "FORWARD", "LEFT", "ENDREPEAT", "ENDFUNCTION",
+                "FUNCTION WITH(SIZE)", "CALL TOUR", "ENDFUNCTION",
+                "CALL WITH(2)", "CALL WITH(3)",
+        };
+        Program compiled = LightBot.compile(program);
+        for (String[] map : new String[][]{open, walls}) {
+            LightBot reference = new LightBot(map);
+            reference.setMetricsEnabled(true);  // con métricas no se usan los resúmenes
+            long total = reference.run(compiled, RunLimits.NONE).getSteps();
+            for (long max = 0; max <= total; max++) {
+                LightBot lb = new LightBot(map);
+                reference.reset();
+                RunResult expected = reference.run(compiled, RunLimits.NONE.withMaxSteps(max));
+                RunResult result = lb.run(compiled, RunLimits.NONE.withMaxSteps(max));
+                assertEquals(expected.getStatus(), result.getStatus());
+                assertEquals(expected.getSteps(), result.getSteps());
+                assertArrayEquals(reference.getRobotPosition(), lb.getRobotPosition());
+                assertArrayEquals(reference.getMap(), lb.getMap());
+            }
+        }
+
+        // Las llamadas repetidas se aplican de golpe; con paredes, solo las que no pasan por ninguna
+        // (las demás se ejecutan paso a paso y el resultado coincide, como se ha comprobado arriba)
+        LightBot lb = new LightBot(open);
+        lb.run(compiled);
+        assertTrue(lb.appliedSummaries() > 0);
+        lb = new LightBot(walls);
+        lb.run(compiled);
+        assertTrue(lb.appliedSummaries() > 0);
+
+        // Una función que busca un valor fuera de la llamada no se resume
+        lb = new LightBot(open);
+        lb.runProgram(new String[]{"FUNCTION G", "REPEAT N", "FORWARD", "ENDREPEAT", "ENDFUNCTION",
+                "FUNCTION F(N)", "REPEAT 5", "CALL G", "RIGHT", "ENDREPEAT", "ENDFUNCTION",
+                "FUNCTION H(M)", "CALL F(M)", "CALL F(M + 1)", "ENDFUNCTION", "CALL H(1)", "CALL H(2)"});
+        assertEquals(0, lb.appliedSummaries());
+
+        // Una llamada recursiva nunca se repite con los mismos argumentos: deja de buscar en la caché
+        // (START busca K por nombre, así que F no se especializa para cada valor)
+        String[] recursive = {"FUNCTION F(N)", "REPEAT N > 0", "RIGHT", "CALL F(N - 1)", "ENDREPEAT", "ENDFUNCTION",
+                "FUNCTION START", "CALL F(K)", "ENDFUNCTION", "FUNCTION WITH(K)", "CALL START", "ENDFUNCTION",
+                "CALL WITH(3000)"};
+        LightBot reference = new LightBot(open);
+        reference.setMetricsEnabled(true);
+        RunResult expected = reference.runProgram(recursive, RunLimits.NONE);
+        lb = new LightBot(open);
+        RunResult result = lb.runProgram(recursive, RunLimits.NONE);
+        assertEquals(expected.getSteps(), result.getSteps());
+        assertArrayEquals(reference.getRobotPosition(), lb.getRobotPosition());
+        assertEquals(0, lb.appliedSummaries());
+        assertTrue(lb.summaryProbes() < 100);
+    }
+
+    @Test
+    public void test35() {
+        String[] map = {
+                "R.........",
+                "......#...",
+                "....O.....",
+                "..#.......",
+                "..........",
+        };
+        // F(300) pasa del máximo de copias especializadas, así que la recursión usa la función con
+        // parámetros de verdad; SPIRAL lleva bucles anidados y tramos de FORWARD fusionados
+        String[] program = {
+                "FUNCTION F(N)", "REPEAT N > 0", "FORWARD", "LIGHT", "CALL F(N - 1)", "ENDREPEAT", "RIGHT", "ENDFUNCTION",
+                "FUNCTION SPIRAL(K)", "REPEAT K", "REPEAT K % 3 + 1", "FORWARD", "FORWARD", "FORWARD", "ENDREPEAT", "LEFT", "ENDREPEAT", "ENDFUNCTION",
+                "CALL F(300)", "CALL SPIRAL(7)", "REPEAT 3", "CALL SPIRAL(2 * 5)", "LIGHT", "ENDREPEAT",
+        };
+        int threshold = LightBot.getJitThreshold();
+        LightBot.setJitThreshold(1);
+        try {
+            Program compiled = Program.parse(program);
+            LightBot reference = new LightBot(map);
+            reference.setMetricsEnabled(true);  // con métricas se usa siempre el intérprete
+            RunResult expected = reference.run(compiled, RunLimits.NONE);
+            // La primera ejecución es con el intérprete y lo compila; la segunda ya usa el código compilado
+            new LightBot(map).run(compiled);
+            LightBot lb = new LightBot(map);
+            RunResult result = lb.run(compiled, RunLimits.NONE);
+            JitCode jit = compiled.getJitCode();
+            assertNotNull(jit);
+            assertTrue(jit.generatedClass().isHidden());
+            assertEquals(1, jit.completedRuns());
+            assertEquals(RunResult.Status.COMPLETED, result.getStatus());
+            assertEquals(expected.getSteps(), result.getSteps());
+            assertArrayEquals(reference.getRobotPosition(), lb.getRobotPosition());
+            assertArrayEquals(reference.getMap(), lb.getMap());
+
+            // Al detenerse por un límite la ejecución se repite con el intérprete y se puede continuar
+            compiled = Program.parse(program);
+            new LightBot(map).run(compiled);
+            long total = expected.getSteps();
+            for (long max = 0; max <= total; max += 7) {
+                reference.reset();
+                expected = reference.run(compiled, RunLimits.NONE.withMaxSteps(max));
+                lb = new LightBot(map);
+                result = lb.run(compiled, RunLimits.NONE.withMaxSteps(max));
+                assertEquals(expected.getStatus(), result.getStatus());
+                assertEquals(expected.getSteps(), result.getSteps());
+                assertArrayEquals(reference.getRobotPosition(), lb.getRobotPosition());
+                assertArrayEquals(reference.getMap(), lb.getMap());
+                if (result.getStatus() != RunResult.Status.COMPLETED) {
+                    result = lb.resume(RunLimits.NONE);
+                    assertEquals(RunResult.Status.COMPLETED, result.getStatus());
+                    assertEquals(total, result.getSteps());
+                }
+            }
+
+            // Los errores los da el intérprete, igual que sin compilar. Este programa falla siempre, así
+            // que se compila sin esperar a que una ejecución acabe.
+            compiled = Program.parse(new String[]{"FUNCTION D(N)", "REPEAT 10 / N", "FORWARD", "ENDREPEAT", "ENDFUNCTION",
+                    "CALL D(2)", "CALL D(0)"});
+            compiled.profile(1, 0);
+            assertNotNull(compiled.getJitCode());
+            lb = new LightBot(map);
+            try {
+                lb.run(compiled);
+                fail("Se esperaba una división por cero");
+            } catch (IllegalArgumentException e) {
+                assertEquals("División por cero", e.getMessage());
+            }
+
+            // Un programa que busca un valor en el frame de quien llama no se compila
+            compiled = Program.parse(new String[]{"FUNCTION G", "REPEAT N", "FORWARD", "ENDREPEAT", "ENDFUNCTION",
+                    "FUNCTION H(N)", "CALL G", "ENDFUNCTION", "CALL H(301)"});
+            lb = new LightBot(map);
+            lb.run(compiled);
+            assertNull(compiled.getJitCode());
+
+            // El tiempo máximo cuenta una sola vez aunque el código compilado salga y siga el intérprete
+            compiled = Program.parse(new String[]{"REPEAT 2000000000", "FORWARD", "LIGHT", "ENDREPEAT"});
+            compiled.profile(1, 0);
+            assertNotNull(compiled.getJitCode());
+            lb = new LightBot("R", LightBot.Backend.SPARSE);
+            long start = System.nanoTime();
+            result = lb.run(compiled, RunLimits.NONE.withTimeout(java.time.Duration.ofMillis(200)));
+            long elapsed = (System.nanoTime() - start) / 1_000_000;
+            assertEquals(RunResult.Status.TIME_EXCEEDED, result.getStatus());
+            // Contando el plazo dos veces tardaba al menos el doble
+            assertTrue("Tardó " + elapsed + " ms", elapsed < 400);
+            assertTrue(lb.canResume());
+        } finally {
+            LightBot.setJitThreshold(threshold);
+        }
+    }
+
+    @Test
+    public void test36() {
+        String map = String.join("\n",
+                "R.O.O...O.",
+                "..........",
+                "..........",
+                "..#......X",
+                "..........");
+        // Enciende las tres casillas objetivo y después sigue dando vueltas mucho tiempo
+        String[] program = {
+                "FUNCTION STAR", "REPEAT 4", "FORWARD", "LIGHT", "RIGHT", "ENDREPEAT", "ENDFUNCTION",
+                "FORWARD", "FORWARD", "LIGHT", "REPEAT 2", "FORWARD", "ENDREPEAT", "LIGHT",
+                "REPEAT 4", "FORWARD", "ENDREPEAT", "LIGHT",
+                "REPEAT 5000", "CALL STAR", "LEFT", "FORWARD", "ENDREPEAT",
+        };
+        Program compiled = LightBot.compile(program);
+        for (LightBot.Backend backend : LightBot.Backend.values()) {
+            LightBot reference = new LightBot(map, backend);
+            assertEquals(3, reference.remainingTargets());
+            assertFalse(reference.isSolved());
+            // Primer paso en el que quedan todas encendidas
+            long solvedAt = 0;
+            while (!reference.isSolved()) {
+                assertTrue(solvedAt < 100);
+                reference.reset();
+                reference.run(compiled, RunLimits.NONE.withMaxSteps(++solvedAt));
+            }
+            reference.reset();
+            assertEquals(3, reference.remainingTargets());
+            RunResult full = reference.run(compiled, RunLimits.NONE);
+            assertEquals(RunResult.Status.COMPLETED, full.getStatus());
+            assertTrue(reference.isSolved());
+
+            for (LightBot.Engine engine : LightBot.Engine.values()) {
+                LightBot lb = new LightBot(map, backend);
+                lb.setEngine(engine);
+                lb.setStopWhenSolved(true);
+                RunResult result = lb.run(compiled, RunLimits.NONE);
+                assertEquals(RunResult.Status.SOLVED, result.getStatus());
+                assertEquals(solvedAt, result.getSteps());
+                assertEquals(0, lb.remainingTargets());
+                assertFalse(lb.canResume());
+                // Al volver al mapa inicial las casillas objetivo vuelven a contar
+                lb.reset();
+                assertEquals(3, lb.remainingTargets());
+            }
+        }
+
+        // El contador sigue a las instantáneas
+        LightBot lb = new LightBot(map);
+        LightBotSnapshot start = lb.snapshot();
+        lb.run(compiled, RunLimits.NONE.withMaxSteps(solvedAtChars(map, compiled)));
+        assertTrue(lb.isSolved());
+        lb.restore(start);
+        assertEquals(3, lb.remainingTargets());
+
+        // También se detiene con el código compilado (ver JitCompiler)
+        int threshold = LightBot.getJitThreshold();
+        LightBot.setJitThreshold(1);
+        try {
+            // El intérprete adelanta casi todo el REPEAT 5000, así que se compila sin esperar al perfil
+            Program fresh = Program.parse(program);
+            fresh.profile(1, 0);
+            assertNotNull(fresh.getJitCode());
+            lb = new LightBot(map);
+            lb.setStopWhenSolved(true);
+            RunResult result = lb.run(fresh, RunLimits.NONE);
+            assertEquals(RunResult.Status.SOLVED, result.getStatus());
+            assertEquals(solvedAtChars(map, compiled), result.getSteps());
+            assertEquals(1, fresh.getJitCode().completedRuns());
+        } finally {
+            LightBot.setJitThreshold(threshold);
+        }
+
+        // La última casilla objetivo se enciende dentro de una llamada que se aplicaría con su resumen
+        // (ver FunctionSummary): esa llamada se ejecuta paso a paso para detenerse en su LIGHT
+        String row = "R.......O.";
+        String[] calls = {"FUNCTION F(N)", "REPEAT N", "FORWARD", "ENDREPEAT", "LIGHT", "ENDFUNCTION",
+                "FUNCTION G", "REPEAT 9", "CALL F(K)", "ENDREPEAT", "ENDFUNCTION",
+                "FUNCTION W(K)", "CALL G", "ENDFUNCTION", "CALL W(1)"};
+        Program withCalls = LightBot.compile(calls);
+        LightBot reference = new LightBot(row);
+        long solvedAt = 0;
+        while (!reference.isSolved()) {
+            assertTrue(solvedAt < 100);
+            reference.reset();
+            reference.run(withCalls, RunLimits.NONE.withMaxSteps(++solvedAt));
+        }
+        lb = new LightBot(row);
+        lb.setStopWhenSolved(true);
+        RunResult result = lb.run(withCalls, RunLimits.NONE);
+        assertEquals(RunResult.Status.SOLVED, result.getStatus());
+        assertEquals(solvedAt, result.getSteps());
+        assertTrue(lb.appliedSummaries() > 0);
+        assertArrayEquals(new int[]{8, 0}, lb.getRobotPosition());
+
+        // Sin casillas objetivo no hay nada que resolver y el programa acaba normalmente
+        lb = new LightBot("R...\n....");
+        lb.setStopWhenSolved(true);
+        assertTrue(lb.isSolved());
+        assertEquals(RunResult.Status.COMPLETED, lb.run(compiled, RunLimits.NONE).getStatus());
+    }
+
+    @Test
+    public void test37() {
+        // Detenerse dentro de un REPEAT que se adelanta y continuar da los mismos pasos que sin detenerse
+        String[] map = {"R......"};
+        String[][] programs = {
+                {"REPEAT 1000", "FORWARD", "ENDREPEAT", "LEFT"},
+                {"REPEAT 64", "FORWARD", "FORWARD", "FORWARD", "ENDREPEAT"},
+                {"REPEAT 50", "REPEAT 30", "FORWARD", "RIGHT", "ENDREPEAT", "LEFT", "ENDREPEAT"},
+        };
+        long[][] stops = {{100}, {100, 157}, {5, 6, 300, 301}, {1, 2, 3, 4, 5, 6, 7, 8}};
+        for (String[] program : programs) {
+            LightBot straight = new LightBot(map);
+            RunResult expected = straight.runProgram(program, RunLimits.NONE);
+            for (long[] limits : stops) {
+                LightBot lb = new LightBot(map);
+                RunResult result = lb.runProgram(program, RunLimits.NONE.withMaxSteps(limits[0]));
+                for (int i = 1; i < limits.length && lb.canResume(); i++)
+                    result = lb.resume(RunLimits.NONE.withMaxSteps(limits[i]));
+                if (lb.canResume()) {
+                    assertEquals(RunResult.Status.STEPS_EXCEEDED, result.getStatus());
+                    result = lb.resume(RunLimits.NONE);
+                }
+                assertEquals(RunResult.Status.COMPLETED, result.getStatus());
+                assertEquals(expected.getSteps(), result.getSteps());
+                assertArrayEquals(straight.getRobotPosition(), lb.getRobotPosition());
+                assertArrayEquals(straight.getMap(), lb.getMap());
+            }
+        }
+    }
+
+    private static long solvedAtChars(String map, Program program) {
+        LightBot lb = new LightBot(map);
+        lb.setStopWhenSolved(true);
+        return lb.run(program, RunLimits.NONE).getSteps();
+    }
+}
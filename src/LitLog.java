@@ -0,0 +1,53 @@
+import java.util.*;
+
+// Casillas encendidas de un Grid desde el mapa inicial. Normalmente son un registro plano de las
+// casillas que se han ido encendiendo, sin objetos por casilla, que se deshace desde el final.
+// Solo al pedir un LitNode para una instantánea pasa el registro a la lista persistente (ver LitNode),
+// que desde entonces es la base del registro: las casillas siguientes vuelven a ir al registro.
+final class LitLog {
+    private long[] cells = new long[16];
+    private int count;
+    private LitNode base;  // casillas encendidas antes de la primera del registro
+
+    void add(long cell) {
+        if (count == cells.length)
+            cells = Arrays.copyOf(cells, count * 2);
+        cells[count++] = cell;
+    }
+
+    // Casillas encendidas desde el mapa inicial, contando las que ya son LitNode; sirve de marca
+    // para undo mientras no se vuelva a otro estado con restore o clear
+    int mark() { return LitNode.depth(base) + count; }
+
+    // Apaga las últimas casillas encendidas hasta que queden mark; si hace falta sigue por la base
+    void undo(int mark, Grid grid) {
+        int depth = LitNode.depth(base);
+        while (count > 0 && depth + count > mark)
+            grid.setLit(cells[--count], false);
+        for (; depth > mark; depth--) {
+            grid.setLit(base.cell, false);
+            base = base.parent;
+        }
+    }
+
+    // Nodo que identifica las casillas encendidas en este momento
+    LitNode head() {
+        for (int i = 0; i < count; i++)
+            base = new LitNode(cells[i], base);
+        count = 0;
+        return base;
+    }
+
+    // Vuelve a las casillas encendidas de un head() anterior del mismo mapa (null: el mapa inicial)
+    void restore(LitNode head, Grid grid) {
+        undo(LitNode.depth(base), grid);
+        LitNode.move(base, head, grid);
+        base = head;
+    }
+
+    // Olvida las casillas sin apagarlas, cuando el Grid ya ha vuelto a su mapa inicial
+    void clear() {
+        count = 0;
+        base = null;
+    }
+}
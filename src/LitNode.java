@@ -0,0 +1,38 @@
+import java.util.*;
+
+// Casilla encendida guardada para una instantánea (ver LitLog). Los nodos forman un árbol
+// persistente: cada estado guarda su último nodo y comparte con los demás las casillas que se
+// encendieron antes de separarse, así que pasar de un estado a otro solo cuesta las casillas en las
+// que difieren.
+final class LitNode {
+    final long cell;
+    final LitNode parent;
+    final int depth;
+
+    LitNode(long cell, LitNode parent) {
+        this.cell = cell;
+        this.parent = parent;
+        this.depth = parent == null ? 1 : parent.depth + 1;
+    }
+
+    static int depth(LitNode node) { return node == null ? 0 : node.depth; }
+
+    // Apaga las casillas de from hasta el antecesor común con to y después enciende las de to
+    static void move(LitNode from, LitNode to, Grid grid) {
+        long[] redo = new long[8];
+        int count = 0;
+        while (from != to) {
+            if (depth(from) >= depth(to)) {
+                grid.setLit(from.cell, false);
+                from = from.parent;
+            } else {
+                if (count == redo.length)
+                    redo = Arrays.copyOf(redo, count * 2);
+                redo[count++] = to.cell;
+                to = to.parent;
+            }
+        }
+        for (int i = 0; i < count; i++)
+            grid.setLit(redo[i], true);
+    }
+}
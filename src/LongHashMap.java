@@ -0,0 +1,52 @@
+// Tabla hash de claves long a objetos con direccionamiento abierto y sondeo lineal.
+// No admite valores null (marcan los huecos) ni borrados.
+class LongHashMap<V> {
+    private long[] keys = new long[16];
+    private Object[] values = new Object[16];
+    private int size;
+
+    int size() { return size; }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ h >>> 32) & (keys.length - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        for (int i = slot(key); values[i] != null; i = (i + 1) & (keys.length - 1))
+            if (keys[i] == key)
+                return (V) values[i];
+        return null;
+    }
+
+    void put(long key, V value) {
+        int i = slot(key);
+        for (; values[i] != null; i = (i + 1) & (keys.length - 1)) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length)
+            rehash(keys.length * 2);
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] != null) {
+                int i = slot(oldKeys[j]);
+                while (values[i] != null)
+                    i = (i + 1) & (capacity - 1);
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+import java.util.Arrays;
+
+// Conjunto de enteros largos no negativos con direccionamiento abierto y sondeo lineal,
+// sin objetos por elemento. Los huecos se marcan con -1.
+class LongHashSet {
+    private long[] keys = new long[16];
+    private int size;
+
+    LongHashSet() { Arrays.fill(keys, -1); }
+
+    int size() { return size; }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ h >>> 32) & (keys.length - 1);
+    }
+
+    boolean contains(long key) {
+        for (int i = slot(key); keys[i] != -1; i = (i + 1) & (keys.length - 1))
+            if (keys[i] == key)
+                return true;
+        return false;
+    }
+
+    // Devuelve false si ya estaba
+    boolean add(long key) {
+        int i = slot(key);
+        for (; keys[i] != -1; i = (i + 1) & (keys.length - 1))
+            if (keys[i] == key)
+                return false;
+        keys[i] = key;
+        if (++size * 2 > keys.length)
+            rehash(keys.length * 2);
+        return true;
+    }
+
+    // Borra desplazando hacia atrás los elementos que venían detrás, sin marcas de borrado
+    boolean remove(long key) {
+        int mask = keys.length - 1;
+        int i = slot(key);
+        while (keys[i] != key) {
+            if (keys[i] == -1)
+                return false;
+            i = (i + 1) & mask;
+        }
+        int hole = i;
+        for (int j = (i + 1) & mask; keys[j] != -1; j = (j + 1) & mask) {
+            int home = slot(keys[j]);
+            // keys[j] puede ir al hueco si su posición ideal no está entre el hueco y j
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = keys[j];
+                hole = j;
+            }
+        }
+        keys[hole] = -1;
+        size--;
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        long[] old = keys;
+        keys = new long[capacity];
+        Arrays.fill(keys, -1);
+        for (long key : old) {
+            if (key != -1) {
+                int i = slot(key);
+                while (keys[i] != -1)
+                    i = (i + 1) & (capacity - 1);
+                keys[i] = key;
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Mapa leído directamente de un fichero proyectado en memoria, que hace de capa inicial de
+// solo lectura (un byte por casilla, filas de la misma longitud separadas por '\n' o "\r\n").
+// Las casillas encendidas se guardan aparte en un conjunto disperso, así que la memoria solo
+// crece con lo que enciende el robot. Los ficheros de más de 1 GB se proyectan por trozos.
+class MappedGrid implements Grid {
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+    private final MappedByteBuffer[] chunks;
+    private final int width, height;
+    private final long stride;           // bytes por fila, con el salto de línea
+    private final int robotX, robotY, robotDir;
+    private final LongHashSet lit = new LongHashSet();
+    private final LitLog litLog = new LitLog();
+    private long remaining;
+
+    MappedGrid(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            chunks = new MappedByteBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_BITS)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long) i << CHUNK_BITS;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(1L << CHUNK_BITS, size - start));
+            }
+            long w = 0;
+            while (w < size && byteAt(w) != '\n')
+                w++;
+            int newline = w < size ? 1 : 0;
+            if (w > 0 && w < size && byteAt(w - 1) == '\r') {
+                w--;
+                newline = 2;
+            }
+            if (w == 0 || w > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("Ancho de mapa inválido en " + file);
+            width = (int) w;
+            stride = width + newline;
+            // La última fila puede acabar o no con salto de línea
+            long rows = newline == 0 ? 1 : (size + newline) / stride;
+            if (rows * stride - newline != size && rows * stride != size || rows > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("Las filas del mapa no tienen la misma longitud: " + file);
+            height = (int) rows;
+            // Comprueba los saltos de línea y busca el robot (gana el último, como en LightBot)
+            int rx = -1, ry = -1, dir = 0;
+            for (int y = 0; y < height; y++) {
+                long row = y * stride;
+                for (int x = 0; x < width; x++) {
+                    char c = byteAt(row + x);
+                    if (c == 'O')
+                        remaining++;
+                    int d = "RDLU".indexOf(c);
+                    if (d >= 0) {
+                        rx = x;
+                        ry = y;
+                        dir = d;
+                    }
+                }
+                if (row + width < size && (byteAt(row + stride - 1) != '\n' || newline == 2 && byteAt(row + width) != '\r'))
+                    throw new IllegalArgumentException("Las filas del mapa no tienen la misma longitud: " + file);
+            }
+            if (rx < 0)
+                throw new IllegalArgumentException("No s'ha trobat el robot!");
+            robotX = rx;
+            robotY = ry;
+            robotDir = dir;
+        }
+    }
+
+    private char byteAt(long offset) {
+        return (char) (chunks[(int) (offset >>> CHUNK_BITS)].get((int) (offset & CHUNK_MASK)) & 0xFF);
+    }
+
+    // Casilla del mapa inicial; la del robot cuenta como '.'
+    private char initial(int x, int y) {
+        char c = byteAt(y * stride + x);
+        return "RLUD".indexOf(c) > -1 ? '.' : c;
+    }
+
+    // Posición y dirección del robot en el fichero: x, y, dirección
+    int[] robot() { return new int[]{robotX, robotY, robotDir}; }
+
+    public int width() { return width; }
+    public int height() { return height; }
+
+    public boolean isWalkable(int x, int y) {
+        char c = initial(x, y);
+        return c == '.' || c == 'O' || c == 'X' || c == 'x';
+    }
+
+    public boolean light(int x, int y) {
+        char c = initial(x, y);
+        long cell = (long) y * width + x;
+        if (c != '.' && c != 'O' || !lit.add(cell))
+            return false;
+        if (c == 'O')
+            remaining--;
+        litLog.add(cell);
+        return true;
+    }
+
+    public char cell(int x, int y) {
+        char c = initial(x, y);
+        if ((c == '.' || c == 'O') && lit.contains((long) y * width + x))
+            return c == 'O' ? 'X' : 'x';
+        return c;
+    }
+
+    public void reset() { restoreLit(null); }
+
+    public String row(int y) {
+        char[] chars = new char[width];
+        for (int x = 0; x < width; x++)
+            chars[x] = cell(x, y);
+        return new String(chars);
+    }
+
+    public LitNode litHead() { return litLog.head(); }
+
+    public void restoreLit(LitNode head) { litLog.restore(head, this); }
+
+    public int litMark() { return litLog.mark(); }
+
+    public void undoLit(int mark) { litLog.undo(mark, this); }
+
+    public void setLit(long cell, boolean on) {
+        boolean changed = on ? lit.add(cell) : lit.remove(cell);
+        if (changed && initial((int) (cell % width), (int) (cell / width)) == 'O')
+            remaining += on ? -1 : 1;
+    }
+
+    public long remainingTargets() { return remaining; }
+}
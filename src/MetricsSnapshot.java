@@ -0,0 +1,57 @@
+import java.util.*;
+
+// Copia inmutable de las métricas de ejecución de un LightBot (ver LightBot.getMetrics)
+public final class MetricsSnapshot {
+    private final Map<String, Long> opcodeCounts;
+    private final Map<String, Long> functionCalls;
+    private final Map<String, Long> functionNanos;
+    private final long loopIterations;
+    private final long fastForwardedIterations;
+    private final int maxCallDepth;
+    private final long blockedForwards;
+    private final long lightsToggled;
+
+    MetricsSnapshot(Map<String, Long> opcodeCounts, Map<String, Long> functionCalls, Map<String, Long> functionNanos,
+                    long loopIterations, long fastForwardedIterations, int maxCallDepth,
+                    long blockedForwards, long lightsToggled) {
+        this.opcodeCounts = Collections.unmodifiableMap(opcodeCounts);
+        this.functionCalls = Collections.unmodifiableMap(functionCalls);
+        this.functionNanos = Collections.unmodifiableMap(functionNanos);
+        this.loopIterations = loopIterations;
+        this.fastForwardedIterations = fastForwardedIterations;
+        this.maxCallDepth = maxCallDepth;
+        this.blockedForwards = blockedForwards;
+        this.lightsToggled = lightsToggled;
+    }
+
+    // Veces que se ha ejecutado cada opcode (FORWARD, LOOP, CALL...). Las vueltas saltadas
+    // por el avance rápido de bucles no se ejecutan y no cuentan aquí.
+    public Map<String, Long> getOpcodeCounts() { return opcodeCounts; }
+
+    // Llamadas a cada función, por nombre
+    public Map<String, Long> getFunctionCalls() { return functionCalls; }
+
+    // Tiempo inclusivo de cada función en nanosegundos (incluye las funciones a las que llama)
+    public Map<String, Long> getFunctionNanos() { return functionNanos; }
+
+    // Vueltas de REPEAT, incluidas las saltadas por el avance rápido
+    public long getLoopIterations() { return loopIterations; }
+
+    public long getFastForwardedIterations() { return fastForwardedIterations; }
+
+    public int getMaxCallDepth() { return maxCallDepth; }
+
+    // FORWARD ejecutados que no movieron al robot porque la casilla de delante no es transitable
+    // (como getOpcodeCounts, no incluye los de las vueltas saltadas)
+    public long getBlockedForwards() { return blockedForwards; }
+
+    // LIGHT que encendieron una casilla
+    public long getLightsToggled() { return lightsToggled; }
+
+    public String toString() {
+        return "opcodes=" + opcodeCounts + ", calls=" + functionCalls + ", nanos=" + functionNanos
+                + ", loopIterations=" + loopIterations + ", fastForwarded=" + fastForwardedIterations
+                + ", maxCallDepth=" + maxCallDepth + ", blockedForwards=" + blockedForwards
+                + ", lightsToggled=" + lightsToggled;
+    }
+}
@@ -0,0 +1,107 @@
+// Tablas de movimiento de un mapa con bordes, calculadas al cargarlo. Las paredes no cambian
+// durante la ejecución, así que FORWARD no tiene que volver a mirar el mapa ni dar la vuelta:
+//  - next[casilla * 4 + dir]: coordenada después de avanzar (x en las direcciones horizontales,
+//    y en las verticales), o -1 si la casilla de delante no es transitable;
+//  - reach[casilla * 4 + dir]: casillas que se pueden avanzar seguidas antes de chocar, u OPEN si
+//    en esa fila o columna no hay ninguna pared y el robot da vueltas sin pararse nunca;
+//  - wallSums: sumas acumuladas de paredes por rectángulos, para saber en O(1) si una zona está
+//    libre (ver FunctionSummary).
+// La casilla es y * ancho + x. Ocupan 36 bytes por casilla, así que solo se crean para mapas de
+// hasta MAX_CELLS casillas; en los demás FORWARD sigue consultando el Grid. LightBot las crea
+// cuando le hacen falta y, al cargar otro mapa del mismo tamaño, las rellena en los mismos arrays.
+final class MoveTable {
+    static final int MAX_CELLS = 1 << 20;
+    static final int OPEN = Integer.MAX_VALUE;
+
+    final int[] next;
+    final int[] reach;
+    private final int width, height;
+    private final int[] wallSums;  // wallSums[y * (ancho + 1) + x]: paredes con coordenadas menores que x e y
+
+    // Devuelve null si el mapa no tiene bordes o es demasiado grande. Si reuse es de un mapa del
+    // mismo tamaño se rellena de nuevo con este mapa en lugar de crear otra.
+    static MoveTable build(Grid grid, MoveTable reuse) {
+        if (!grid.wraps() || (long) grid.width() * grid.height() > MAX_CELLS)
+            return null;
+        MoveTable table = reuse != null && reuse.width == grid.width() && reuse.height == grid.height()
+                ? reuse : new MoveTable(grid.width(), grid.height());
+        table.fill(grid);
+        return table;
+    }
+
+    private MoveTable(int width, int height) {
+        this.width = width;
+        this.height = height;
+        next = new int[width * height * 4];
+        reach = new int[width * height * 4];
+        wallSums = new int[(width + 1) * (height + 1)];
+    }
+
+    private void fill(Grid grid) {
+        boolean[] walkable = new boolean[width * height];
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+                walkable[y * width + x] = grid.isWalkable(x, y);
+        for (int y = 0; y < height; y++) {
+            fill(walkable, y * width, 1, width, 0, 1);
+            fill(walkable, y * width, 1, width, 2, -1);
+        }
+        for (int x = 0; x < width; x++) {
+            fill(walkable, x, width, height, 1, 1);
+            fill(walkable, x, width, height, 3, -1);
+        }
+        // La fila y la columna 0 de wallSums son siempre 0; el resto se sobrescribe
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+                wallSums[(y + 1) * (width + 1) + x + 1] = (walkable[y * width + x] ? 0 : 1)
+                        + wallSums[y * (width + 1) + x + 1] + wallSums[(y + 1) * (width + 1) + x] - wallSums[y * (width + 1) + x];
+    }
+
+    // Si no hay ninguna pared en el rectángulo de x0 a x1 y de y0 a y1 (incluidos). Las coordenadas
+    // pueden salirse del mapa y dan la vuelta igual que el robot, así que el rectángulo puede
+    // partirse en cuatro; si es más ancho o más alto que el mapa cubre todas sus columnas o filas.
+    boolean isClear(long x0, long y0, long x1, long y1) {
+        if (x1 - x0 + 1 >= width) {
+            x0 = 0;
+            x1 = width - 1;
+        }
+        if (y1 - y0 + 1 >= height) {
+            y0 = 0;
+            y1 = height - 1;
+        }
+        int ax = Math.floorMod(x0, width), bx = ax + (int) (x1 - x0);
+        int ay = Math.floorMod(y0, height), by = ay + (int) (y1 - y0);
+        return walls(ax, ay, Math.min(bx, width - 1), Math.min(by, height - 1)) == 0
+                && (bx < width || walls(0, ay, bx - width, Math.min(by, height - 1)) == 0)
+                && (by < height || walls(ax, 0, Math.min(bx, width - 1), by - height) == 0)
+                && (bx < width || by < height || walls(0, 0, bx - width, by - height) == 0);
+    }
+
+    private int walls(int x0, int y0, int x1, int y1) {
+        int w = width + 1;
+        return wallSums[(y1 + 1) * w + x1 + 1] - wallSums[y0 * w + x1 + 1] - wallSums[(y1 + 1) * w + x0] + wallSums[y0 * w + x0];
+    }
+
+    // Rellena una fila o columna de length casillas que empieza en first y sigue de stride en stride,
+    // recorrida en la dirección dir (step es +1 o -1 a lo largo de la línea)
+    private void fill(boolean[] walkable, int first, int stride, int length, int dir, int step) {
+        int wall = -1;
+        for (int p = 0; p < length; p++) {
+            int q = Math.floorMod(p + step, length);
+            next[(first + p * stride) * 4 + dir] = walkable[first + q * stride] ? q : -1;
+            if (!walkable[first + p * stride])
+                wall = p;
+        }
+        if (wall < 0) {
+            for (int p = 0; p < length; p++)
+                reach[(first + p * stride) * 4 + dir] = OPEN;
+            return;
+        }
+        // Hacia atrás desde una pared: cada casilla llega una más lejos que la siguiente
+        for (int i = 1; i <= length; i++) {
+            int p = Math.floorMod(wall - i * step, length);
+            int ahead = first + Math.floorMod(p + step, length) * stride;
+            reach[(first + p * stride) * 4 + dir] = walkable[ahead] ? reach[ahead * 4 + dir] + 1 : 0;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+// Nombre que no es parámetro de la función actual: se busca en los frames anteriores
+class NameExpr extends Expr {
+    final String name;
+    final int symbol;
+    NameExpr(String name, int symbol) {
+        this.name = name;
+        this.symbol = symbol;
+    }
+    int eval(LightBot bot) { return bot.lookupValue(symbol, name); }
+    void emit(BytecodeCompiler out) { out.emitOperand(Bytecode.EXPR_VAR, symbol); }
+    void emitStack(BytecodeCompiler out) { out.emitExprOp(Bytecode.E_VAR, symbol); }
+}
@@ -0,0 +1,13 @@
+class NegExpr extends Expr {
+    final Expr operand;
+    NegExpr(Expr operand) { this.operand = operand; }
+    int eval(LightBot bot) { return -operand.eval(bot); }
+    Expr substitute(Expr[] locals) {
+        Expr inner = operand.substitute(locals);
+        return inner instanceof ConstExpr ? new ConstExpr(-((ConstExpr) inner).value) : new NegExpr(inner);
+    }
+    void emitStack(BytecodeCompiler out) {
+        operand.emitStack(out);
+        out.emitExprOp(Bytecode.E_NEG);
+    }
+}
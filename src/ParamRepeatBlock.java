@@ -0,0 +1,36 @@
+import java.util.*;
+
+// Bloque REPEAT parametrizado (REPEAT N)
+class ParamRepeatBlock implements Instruction {
+    private final Expr timesExpr;
+    private final List<Instruction> instructions;
+    private final int line;
+    public ParamRepeatBlock(Expr timesExpr, List<Instruction> instructions, int line) {
+        this.timesExpr = timesExpr;
+        this.instructions = instructions;
+        this.line = line;
+    }
+
+    public void execute(LightBot bot) {
+        int n = timesExpr.eval(bot);
+        for (int i = 0; i < n; i++) {
+            bot.countControlStep();
+            for (Instruction instr : instructions)
+                instr.execute(bot);
+        }
+    }
+
+    public void emit(BytecodeCompiler out) {
+        out.setLine(line);
+        int loopPc = out.beginLoop(timesExpr);
+        for (Instruction instr : instructions)
+            instr.emit(out);
+        // Cada vuelta del bucle se atribuye a la línea del REPEAT
+        out.setLine(line);
+        out.endLoop(loopPc);
+    }
+
+    Expr getTimesExpr() { return timesExpr; }
+    List<Instruction> getInstructions() { return instructions; }
+    public int getLine() { return line; }
+}
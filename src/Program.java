@@ -0,0 +1,121 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Programa ya analizado: tabla de funciones, instrucciones principales y su bytecode.
+// Se obtiene con LightBot.compile y se ejecuta con LightBot.run sobre cualquier instancia.
+// Es inmutable, así que puede guardarse en caché y ejecutarse a la vez desde varios hilos; solo
+// cambia el contador de ejecuciones con el que pasa al segundo nivel del motor (ver JitCompiler).
+public final class Program {
+    private static final int MAP_WINDOW = 1 << 30;  // bytes proyectados a la vez por parse(Path)
+
+    private final Map<String, UserFunction> functions;
+    private final List<Instruction> mainInstructions;
+    private final Bytecode bytecode;
+    private final Bytecode optimizedBytecode;  // ver ProgramOptimizer
+    // Segundo nivel: se compila a una clase de la JVM al pasar de LightBot.getJitThreshold() ejecuciones
+    private final AtomicInteger runs = new AtomicInteger();
+    private final ReentrantLock jitLock = new ReentrantLock();
+    private volatile JitCode jitCode;
+    private volatile boolean jitFailed;  // el programa no se puede compilar
+
+    Program(Map<String, UserFunction> functions, List<Instruction> mainInstructions, String[] symbols) {
+        this.functions = Collections.unmodifiableMap(functions);
+        this.mainInstructions = Collections.unmodifiableList(mainInstructions);
+        this.bytecode = BytecodeCompiler.compile(functions, mainInstructions, symbols);
+        this.optimizedBytecode = ProgramOptimizer.optimize(mainInstructions, symbols);
+    }
+
+    // Analiza sin pasar por la caché de LightBot.compile
+    public static Program parse(String[] programLines) {
+        ProgramParser parser = new ProgramParser();
+        for (String line : programLines)
+            parser.feed(line);
+        return parser.finish();
+    }
+
+    // Analiza leyendo línea a línea, sin guardar el texto del programa
+    public static Program parse(Reader reader) throws IOException {
+        BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        ProgramParser parser = new ProgramParser();
+        for (String line = lines.readLine(); line != null; line = lines.readLine())
+            parser.feed(line);
+        return parser.finish();
+    }
+
+    // El texto se lee como UTF-8
+    public static Program parse(InputStream in) throws IOException {
+        return parse(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    // Analiza un fichero proyectándolo en memoria por ventanas de MAP_WINDOW bytes.
+    // Solo se crea un String por línea; '\n' nunca forma parte de un carácter UTF-8 de
+    // varios bytes, así que cada línea se puede decodificar por separado.
+    public static Program parse(Path file) throws IOException {
+        ProgramParser parser = new ProgramParser();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long pos = 0;
+            while (pos < size) {
+                int length = (int) Math.min(MAP_WINDOW, size - pos);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, pos, length);
+                int lineStart = 0;
+                for (int i = 0; i < length; i++) {
+                    if (window.get(i) == '\n') {
+                        parser.feed(decode(window, lineStart, i));
+                        lineStart = i + 1;
+                    }
+                }
+                if (pos + length == size) {
+                    if (lineStart < length)
+                        parser.feed(decode(window, lineStart, length));
+                    break;
+                }
+                // La siguiente ventana empieza en la línea que ha quedado cortada
+                if (lineStart == 0)
+                    throw new IOException("Línea de más de " + MAP_WINDOW + " bytes en " + file);
+                pos += lineStart;
+            }
+        }
+        return parser.finish();
+    }
+
+    private static String decode(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    Map<String, UserFunction> getFunctions() { return functions; }
+    List<Instruction> getMainInstructions() { return mainInstructions; }
+    Bytecode getBytecode() { return bytecode; }
+    Bytecode getOptimizedBytecode() { return optimizedBytecode; }
+    JitCode getJitCode() { return jitCode; }
+
+    // Cuenta una ejecución del bytecode optimizado con el intérprete y compila el programa al pasar
+    // del umbral. Solo cuentan las ejecuciones en las que el intérprete ha dado al menos la mitad de
+    // los pasos uno a uno: si la mayoría los adelanta en los bucles o con resúmenes de funciones, es
+    // más rápido que el código compilado, que los da todos.
+    void profile(long steps, long skipped) {
+        if (jitCode != null || jitFailed || skipped * 2 > steps)
+            return;
+        if (runs.incrementAndGet() < LightBot.getJitThreshold())
+            return;
+        jitLock.lock();
+        try {
+            if (jitCode == null && !jitFailed) {
+                jitCode = JitCompiler.compile(optimizedBytecode);
+                jitFailed = jitCode == null;
+            }
+        } finally {
+            jitLock.unlock();
+        }
+    }
+}
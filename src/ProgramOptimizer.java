@@ -0,0 +1,176 @@
+import java.util.*;
+
+// Evaluación parcial de un programa ya analizado y enlazado, para el motor de bytecode:
+//  - cada llamada con argumentos constantes va a una copia de la función especializada para esos
+//    valores ("LINE(4)"), en la que los parámetros son constantes y REPEAT N pasa a ser REPEAT 3;
+//  - las funciones pequeñas que no se llaman a sí mismas se integran en quien llama si nada puede
+//    buscar sus parámetros por nombre en su frame: si no tienen parámetros, o si no llaman a nadie
+//    y su cuerpo (con lo que ya se haya integrado en él) no usa sus nombres;
+//  - solo se generan las funciones a las que se llega desde el programa principal.
+// La copia especializada sigue recibiendo los argumentos, así que los frames y las búsquedas por
+// nombre no cambian. Una llamada integrada deja un CallStep, que cuenta el mismo paso que el CALL,
+// y los REPEAT que no dan ninguna vuelta desaparecen: los pasos y el estado del robot en cada paso
+// son los del programa original, lo que cambia es el bytecode que los produce.
+final class ProgramOptimizer {
+    private static final int MAX_COPIES = 256;      // funciones generadas como máximo
+    private static final int MAX_INLINE_SIZE = 32;  // instrucciones de una función que se integra
+
+    private final Map<String, UserFunction> copies = new LinkedHashMap<>();
+    private final Set<UserFunction> building = new HashSet<>();  // copias con el cuerpo a medias
+
+    private ProgramOptimizer() {}
+
+    static Bytecode optimize(List<Instruction> main, String[] symbols) {
+        ProgramOptimizer optimizer = new ProgramOptimizer();
+        List<Instruction> optimized = optimizer.block(main, new Expr[0]);
+        // Las copias que se han integrado en todas partes ya no se llaman desde ningún sitio
+        Map<String, UserFunction> called = new LinkedHashMap<>();
+        collectCalls(optimized, called);
+        return BytecodeCompiler.compile(called, optimized, symbols);
+    }
+
+    private static void collectCalls(List<Instruction> instructions, Map<String, UserFunction> called) {
+        for (Instruction instr : instructions) {
+            if (instr instanceof UserFunctionCall) {
+                UserFunction target = ((UserFunctionCall) instr).getTarget();
+                if (called.put(target.getName(), target) == null)
+                    collectCalls(target.getInstructions(), called);
+            } else if (instr instanceof ParamRepeatBlock) {
+                collectCalls(((ParamRepeatBlock) instr).getInstructions(), called);
+            }
+        }
+    }
+
+    // locals: valor constante de cada parámetro de la función actual, o null si no se conoce
+    private List<Instruction> block(List<Instruction> instructions, Expr[] locals) {
+        List<Instruction> result = new ArrayList<>();
+        for (Instruction instr : instructions) {
+            if (instr instanceof ParamRepeatBlock) {
+                ParamRepeatBlock repeat = (ParamRepeatBlock) instr;
+                Expr times = repeat.getTimesExpr().substitute(locals);
+                if (times instanceof ConstExpr && ((ConstExpr) times).value <= 0)
+                    continue;  // No da ninguna vuelta ni cuenta ningún paso
+                result.add(new ParamRepeatBlock(times, block(repeat.getInstructions(), locals), repeat.getLine()));
+            } else if (instr instanceof UserFunctionCall) {
+                call((UserFunctionCall) instr, locals, result);
+            } else {
+                result.add(instr);
+            }
+        }
+        return ForwardRun.fuse(result);
+    }
+
+    private void call(UserFunctionCall call, Expr[] locals, List<Instruction> result) {
+        UserFunction target = call.getTarget();
+        if (target == null)
+            return;  // Llamada a una función que no existe: no hace nada
+        Expr[] args = call.getArgExprs().clone();
+        boolean constant = true;
+        for (int i = 0; i < args.length; i++) {
+            args[i] = args[i].substitute(locals);
+            constant &= args[i] instanceof ConstExpr;
+        }
+        Expr[] known = new Expr[target.getParamSymbols().length];
+        // Con argumentos de menos la llamada tiene que fallar igual: va a la copia sin especializar
+        if (args.length >= known.length)
+            for (int i = 0; i < known.length; i++)
+                if (args[i] instanceof ConstExpr)
+                    known[i] = args[i];
+        UserFunction copy = copy(target, known);
+        // Sin copias especializadas libres llega la función original, con los parámetros sin sustituir
+        boolean specialized = known.length == 0 || !copy.getName().equals(target.getName());
+        if (constant && specialized && args.length >= known.length && canInline(copy)) {
+            result.add(new CallStep(call.getLine()));
+            result.addAll(copy.getInstructions());
+            return;
+        }
+        UserFunctionCall linked = new UserFunctionCall(copy.getName(), args, call.getLine());
+        linked.bind(copy);
+        result.add(linked);
+    }
+
+    // Copia de la función con los parámetros conocidos sustituidos; se crea la primera vez
+    private UserFunction copy(UserFunction function, Expr[] known) {
+        StringBuilder key = new StringBuilder(function.getName());
+        boolean specialized = false;
+        for (Expr value : known)
+            specialized |= value != null;
+        if (specialized && copies.size() >= MAX_COPIES)
+            return copy(function, new Expr[known.length]);
+        if (specialized) {
+            key.append('(');
+            for (int i = 0; i < known.length; i++) {
+                if (i > 0)
+                    key.append(',');
+                key.append(known[i] == null ? "?" : String.valueOf(((ConstExpr) known[i]).value));
+            }
+            key.append(')');
+        }
+        String name = key.toString();
+        UserFunction copy = copies.get(name);
+        if (copy != null)
+            return copy;
+        // El cuerpo se rellena después de registrar la copia para que las llamadas recursivas la encuentren
+        List<Instruction> body = new ArrayList<>();
+        copy = new UserFunction(name, function.getParamNames(), function.getParamSymbols(), body);
+        copies.put(name, copy);
+        building.add(copy);
+        body.addAll(block(function.getInstructions(), known));
+        building.remove(copy);
+        return copy;
+    }
+
+    private boolean canInline(UserFunction copy) {
+        if (building.contains(copy))
+            return false;  // Recursiva
+        List<Instruction> body = copy.getInstructions();
+        int[] params = copy.getParamSymbols();
+        return size(body) <= MAX_INLINE_SIZE && (params.length == 0 || !hasCalls(body) && !usesNames(body, params));
+    }
+
+    private static int size(List<Instruction> instructions) {
+        int size = 0;
+        for (Instruction instr : instructions) {
+            size++;
+            if (instr instanceof ParamRepeatBlock)
+                size += size(((ParamRepeatBlock) instr).getInstructions());
+        }
+        return size;
+    }
+
+    // Si algún REPEAT busca por nombre alguno de los símbolos
+    private static boolean usesNames(List<Instruction> instructions, int[] symbols) {
+        for (Instruction instr : instructions) {
+            if (instr instanceof ParamRepeatBlock) {
+                ParamRepeatBlock repeat = (ParamRepeatBlock) instr;
+                if (usesNames(repeat.getTimesExpr(), symbols) || usesNames(repeat.getInstructions(), symbols))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean usesNames(Expr expr, int[] symbols) {
+        if (expr instanceof NameExpr) {
+            for (int symbol : symbols)
+                if (((NameExpr) expr).symbol == symbol)
+                    return true;
+            return false;
+        }
+        if (expr instanceof NegExpr)
+            return usesNames(((NegExpr) expr).operand, symbols);
+        if (expr instanceof BinaryExpr)
+            return usesNames(((BinaryExpr) expr).left, symbols) || usesNames(((BinaryExpr) expr).right, symbols);
+        return false;
+    }
+
+    private static boolean hasCalls(List<Instruction> instructions) {
+        for (Instruction instr : instructions) {
+            if (instr instanceof UserFunctionCall)
+                return true;
+            if (instr instanceof ParamRepeatBlock && hasCalls(((ParamRepeatBlock) instr).getInstructions()))
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,182 @@
+import java.util.*;
+
+// Analizador de programas en una sola pasada: recibe las líneas de una en una y va construyendo
+// el árbol de instrucciones, así que nunca hace falta tener todo el texto en memoria.
+// Mantiene a la vez las dos lecturas del programa que hacía el analizador por líneas:
+//  - la de las funciones: fuera de una función, una línea "FUNCTION nombre" empieza una y su
+//    cuerpo llega hasta el primer ENDFUNCTION (una FUNCTION anidada no se registra);
+//  - la de las instrucciones principales, que se salta cada FUNCTION hasta su ENDFUNCTION.
+// Las llamadas se guardan por nombre y se enlazan con su función al terminar (la última
+// definición con ese nombre), así que pueden aparecer antes que la función.
+// Al cerrar cada bloque se fusionan sus tramos de FORWARD (ver ForwardRun).
+final class ProgramParser {
+    private final Symbols symbols = new Symbols();
+    private final Map<String, UserFunction> functions = new HashMap<>();
+    private final Map<String, List<UserFunctionCall>> calls = new HashMap<>();
+    private final BlockParser main = new BlockParser(Collections.emptyList());
+    // Función que se está leyendo; body es null fuera de las funciones
+    private String funcName;
+    private List<String> funcParams;
+    private BlockParser body;
+    private int lineNumber;  // línea actual, empezando por 1, para la tabla de líneas del bytecode
+
+    void feed(String rawLine) {
+        lineNumber++;
+        String line = rawLine.trim();
+        if (body != null) {
+            if (line.equals("ENDFUNCTION"))
+                endFunction();
+            else
+                body.feed(line);
+        } else if (line.startsWith("FUNCTION ")) {
+            String rest = line.substring(9).trim();
+            funcParams = new ArrayList<>();
+            int parIdx = rest.indexOf('(');
+            if (parIdx >= 0 && rest.endsWith(")")) {
+                funcName = rest.substring(0, parIdx).trim();
+                String paramList = rest.substring(parIdx + 1, rest.length() - 1).trim();
+                if (!paramList.isEmpty())
+                    for (String p : paramList.split(","))
+                        funcParams.add(p.trim());
+            } else {
+                funcName = rest;
+            }
+            body = new BlockParser(funcParams);
+        }
+        main.feed(line);
+    }
+
+    Program finish() {
+        if (body != null)
+            endFunction();  // Sin ENDFUNCTION la función llega hasta el final
+        List<Instruction> mainInstructions = main.finish();
+        for (Map.Entry<String, List<UserFunctionCall>> e : calls.entrySet()) {
+            UserFunction target = functions.get(e.getKey());
+            for (UserFunctionCall call : e.getValue())
+                call.bind(target);
+        }
+        return new Program(functions, mainInstructions, symbols.toArray());
+    }
+
+    private void endFunction() {
+        List<Instruction> instructions = body.finish();
+        functions.put(funcName, new UserFunction(funcName, funcParams, symbols.internAll(funcParams), instructions));
+        body = null;
+    }
+
+    // Instrucciones de un tramo: el programa principal o el cuerpo de una función. Cada REPEAT
+    // abierto es un bloque en la pila; un bloque acaba con el ENDREPEAT que lo empareja contando
+    // todos los REPEAT y ENDREPEAT de dentro, también los de las FUNCTION que se saltan.
+    private final class BlockParser {
+        private final List<String> params;
+        private final ArrayDeque<Block> blocks = new ArrayDeque<>();
+
+        BlockParser(List<String> params) {
+            this.params = params;
+            blocks.push(new Block(null, 0));
+        }
+
+        void feed(String cmd) {
+            Block block = blocks.peek();
+            if (block.skipping) {
+                // Dentro de una FUNCTION: solo cuentan el ENDFUNCTION y el final del bloque
+                if (cmd.startsWith("REPEAT "))
+                    block.extraDepth++;
+                else if (cmd.equals("ENDREPEAT"))
+                    endRepeat(block);
+                else if (cmd.equals("ENDFUNCTION"))
+                    block.skipping = false;
+                return;
+            }
+            if (cmd.isEmpty())
+                return;
+            if (cmd.startsWith("FUNCTION")) {
+                block.skipping = true;
+                return;
+            }
+            if (cmd.startsWith("REPEAT ")) {
+                blocks.push(new Block(Expr.parse(cmd.substring(7).trim(), params, symbols), lineNumber));
+                return;
+            }
+            if (cmd.equals("ENDREPEAT")) {
+                endRepeat(block);
+                return;
+            }
+            if (cmd.equals("ENDFUNCTION"))
+                return;
+            if (cmd.startsWith("CALL ")) {
+                String tail = cmd.substring(5).trim();
+                String name;
+                List<Expr> args = new ArrayList<>();
+                int parIdx = tail.indexOf('(');
+                if (parIdx >= 0 && tail.endsWith(")")) {
+                    name = tail.substring(0, parIdx).trim();
+                    String argList = tail.substring(parIdx + 1, tail.length() - 1).trim();
+                    if (!argList.isEmpty())
+                        for (String arg : splitArgs(argList))
+                            args.add(Expr.parse(arg.trim(), params, symbols));
+                } else {
+                    name = tail;
+                }
+                UserFunctionCall call = new UserFunctionCall(name, args.toArray(new Expr[0]), lineNumber);
+                calls.computeIfAbsent(name, k -> new ArrayList<>()).add(call);
+                block.instructions.add(call);
+                return;
+            }
+            block.instructions.add(new SimpleInstruction(cmd, lineNumber));
+        }
+
+        // Un ENDREPEAT de más (de un REPEAT saltado o sin REPEAT) no cierra nada
+        private void endRepeat(Block block) {
+            if (block.extraDepth > 0)
+                block.extraDepth--;
+            else if (block.timesExpr != null)
+                close();
+        }
+
+        private void close() {
+            Block block = blocks.pop();
+            blocks.peek().instructions.add(new ParamRepeatBlock(block.timesExpr, ForwardRun.fuse(block.instructions), block.line));
+        }
+
+        // Los REPEAT sin cerrar llegan hasta el final del tramo
+        List<Instruction> finish() {
+            while (blocks.size() > 1)
+                close();
+            return ForwardRun.fuse(blocks.pop().instructions);
+        }
+    }
+
+    private static final class Block {
+        final Expr timesExpr;  // null en el nivel superior
+        final int line;        // línea del REPEAT
+        final List<Instruction> instructions = new ArrayList<>();
+        boolean skipping;      // dentro de una FUNCTION que se salta
+        int extraDepth;        // REPEAT saltados que aún no han visto su ENDREPEAT
+
+        Block(Expr timesExpr, int line) {
+            this.timesExpr = timesExpr;
+            this.line = line;
+        }
+    }
+
+    // Separa los argumentos por las comas que no están dentro de paréntesis
+    private static List<String> splitArgs(String argList) {
+        List<String> args = new ArrayList<>();
+        int depth = 0, start = 0;
+        for (int i = 0; i < argList.length(); i++) {
+            char c = argList.charAt(i);
+            if (c == '(') depth++;
+            else if (c == ')') depth--;
+            else if (c == ',' && depth == 0) {
+                args.add(argList.substring(start, i));
+                start = i + 1;
+            }
+        }
+        args.add(argList.substring(start));
+        // Igual que String.split, sin las cadenas vacías del final
+        while (!args.isEmpty() && args.get(args.size() - 1).isEmpty())
+            args.remove(args.size() - 1);
+        return args;
+    }
+}
@@ -0,0 +1,30 @@
+import java.time.Duration;
+
+// Límites de una ejecución: número máximo de pasos, tiempo máximo y token de cancelación.
+// Un paso es cada FORWARD, LEFT, RIGHT o LIGHT, cada CALL y cada vuelta de un REPEAT.
+// Es inmutable: los métodos with* devuelven una copia.
+public final class RunLimits {
+    public static final RunLimits NONE = new RunLimits(Long.MAX_VALUE, null, null);
+
+    private final long maxSteps;
+    private final Duration timeout;
+    private final CancellationToken cancellation;
+
+    private RunLimits(long maxSteps, Duration timeout, CancellationToken cancellation) {
+        if (maxSteps < 0)
+            throw new IllegalArgumentException("El número de pasos no puede ser negativo: " + maxSteps);
+        this.maxSteps = maxSteps;
+        this.timeout = timeout;
+        this.cancellation = cancellation;
+    }
+
+    public RunLimits withMaxSteps(long maxSteps) { return new RunLimits(maxSteps, timeout, cancellation); }
+
+    public RunLimits withTimeout(Duration timeout) { return new RunLimits(maxSteps, timeout, cancellation); }
+
+    public RunLimits withCancellation(CancellationToken token) { return new RunLimits(maxSteps, timeout, token); }
+
+    public long getMaxSteps() { return maxSteps; }
+    public Duration getTimeout() { return timeout; }
+    public CancellationToken getCancellation() { return cancellation; }
+}
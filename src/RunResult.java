@@ -0,0 +1,25 @@
+// Resultado de LightBot.run(program, limits): cómo terminó la ejecución y cuántos pasos hizo
+public final class RunResult {
+    public enum Status {
+        COMPLETED,       // el programa llegó al final
+        STEPS_EXCEEDED,  // se alcanzó el número máximo de pasos
+        TIME_EXCEEDED,   // se superó el tiempo máximo
+        CANCELLED,       // se canceló con el CancellationToken
+        BREAKPOINT,      // se llegó a un punto de parada (solo con Debugger)
+        SOLVED           // se encendió la última casilla objetivo (solo con LightBot.setStopWhenSolved)
+    }
+
+    private final Status status;
+    private final long steps;
+
+    RunResult(Status status, long steps) {
+        this.status = status;
+        this.steps = steps;
+    }
+
+    public Status getStatus() { return status; }
+    public long getSteps() { return steps; }
+    public boolean isCompleted() { return status == Status.COMPLETED; }
+
+    public String toString() { return status + " (" + steps + " pasos)"; }
+}
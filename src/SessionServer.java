@@ -0,0 +1,365 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Servidor de sesiones interactivas: cada sesión tiene su LightBot y su propio hilo, que atiende
+// las órdenes de la sesión de una en una. Con Java 21 o posterior los hilos son virtuales, así que
+// una sesión inactiva solo ocupa su mapa y un hilo aparcado; con versiones anteriores se usan hilos
+// normales con una pila pequeña.
+//
+// Protocolo de líneas (entrada estándar). Las órdenes marcadas con * van seguidas de las líneas del
+// mapa o del programa y de una línea END. Cada respuesta empieza por "OK ..." o "ERROR mensaje"
+// y termina con una línea END.
+//   CREATE                 crea una sesión                          -> OK id
+//   LOAD id *              carga un mapa en la sesión               -> OK
+//   RUN id *               ejecuta un programa desde donde está el robot -> OK estado pasos x y
+//   PROGRAM id *           prepara un programa para STEP sin ejecutar nada -> OK estado 0 x y
+//   STEP id n              continúa n pasos el programa en curso    -> OK estado pasos x y
+//   RESET id               vuelve al mapa inicial                   -> OK
+//   MAP id                 mapa actual                              -> OK x y, seguido de las filas
+//   CLOSE id               termina la sesión                        -> OK
+//
+// Como los programas vienen de fuera, el número de sesiones está limitado y las que llevan más de
+// idleTimeout sin recibir órdenes se cierran solas (se comprueba al crear sesiones nuevas).
+//
+// Por HTTP (ver startHttp) las mismas órdenes son POST /sessions, PUT /sessions/id/map,
+// POST /sessions/id/run, POST /sessions/id/program, POST /sessions/id/step?n=N,
+// POST /sessions/id/reset, GET /sessions/id/map y DELETE /sessions/id; el cuerpo de la petición
+// son las líneas del mapa o del programa y la respuesta es la misma sin el END final.
+public final class SessionServer implements Closeable {
+    private static final ThreadFactory SESSION_THREADS = threadFactory();
+
+    private final Map<Long, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final RunLimits limits;
+    private final int maxSessions;
+    private final long idleNanos;
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+    private HttpServer http;
+    private ExecutorService httpExecutor;
+
+    // Sesión: el LightBot solo lo toca el hilo de la sesión, que saca las órdenes del buzón una a una
+    private static final class Session implements Runnable {
+        private static final FutureTask<List<String>> CLOSE = new FutureTask<>(() -> null);
+        private final BlockingQueue<FutureTask<List<String>>> mailbox = new LinkedBlockingQueue<>();
+        LightBot bot;
+        long steps;  // pasos de la ejecución en curso, para que STEP sepa hasta dónde llegar
+        private volatile boolean closed;
+        private volatile long lastUsed = System.nanoTime();
+        private volatile boolean busy;
+
+        public void run() {
+            try {
+                for (FutureTask<List<String>> task = mailbox.take(); task != CLOSE; task = mailbox.take())
+                    task.run();
+            } catch (InterruptedException e) {
+                // Se ha cerrado el servidor
+            }
+        }
+
+        List<String> call(Callable<List<String>> command) throws InterruptedException {
+            FutureTask<List<String>> task = new FutureTask<>(() -> {
+                busy = true;
+                try {
+                    return command.call();
+                } finally {
+                    busy = false;
+                    lastUsed = System.nanoTime();
+                }
+            });
+            lastUsed = System.nanoTime();
+            mailbox.add(task);
+            // Si la sesión se cerró antes de que la orden llegara al buzón, nadie la va a atender
+            if (closed)
+                task.cancel(false);
+            try {
+                return task.get();
+            } catch (ExecutionException e) {
+                return error(e.getCause());
+            } catch (CancellationException e) {
+                return error("La sesión está cerrada");
+            }
+        }
+
+        void close() {
+            closed = true;
+            mailbox.add(CLOSE);
+        }
+
+        boolean isIdle(long now, long idleNanos) {
+            return !busy && mailbox.isEmpty() && now - lastUsed >= idleNanos;
+        }
+    }
+
+    // Límites de cada RUN y de cada STEP, sesiones abiertas como máximo y tiempo sin órdenes tras
+    // el que se cierra una sesión; conviene tenerlos porque los programas vienen de fuera
+    public SessionServer(RunLimits limits, int maxSessions, Duration idleTimeout) {
+        if (maxSessions < 1 || idleTimeout.isNegative() || idleTimeout.isZero())
+            throw new IllegalArgumentException("Máximo de sesiones o tiempo de inactividad inválidos: "
+                    + maxSessions + ", " + idleTimeout);
+        this.limits = Objects.requireNonNull(limits);
+        this.maxSessions = maxSessions;
+        this.idleNanos = idleTimeout.toNanos();
+    }
+
+    public SessionServer(RunLimits limits) {
+        this(limits, 10_000, Duration.ofMinutes(30));
+    }
+
+    public SessionServer() {
+        this(RunLimits.NONE.withMaxSteps(100_000_000).withTimeout(Duration.ofSeconds(5)));
+    }
+
+    // Hilos virtuales si la JVM los tiene (Java 21+). Se buscan por reflexión para compilar con Java 17.
+    private static ThreadFactory threadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return task -> {
+                Thread thread = new Thread(null, task, "sesion", 256 * 1024);
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+
+    public int getSessionCount() { return sessions.size(); }
+
+    // Ejecuta una orden del protocolo. body son las líneas que siguen a LOAD, RUN o PROGRAM.
+    public List<String> execute(String commandLine, List<String> body) throws InterruptedException {
+        String[] parts = commandLine.trim().split("\\s+");
+        String command = parts[0].toUpperCase(Locale.ROOT);
+        if (command.equals("CREATE")) {
+            // Se buscan sesiones inactivas de vez en cuando, y siempre que no cabe ninguna más
+            long now = System.nanoTime();
+            long last = lastSweep.get();
+            if (sessions.size() >= maxSessions || now - last >= idleNanos / 4 && lastSweep.compareAndSet(last, now))
+                closeIdle(now);
+            if (sessions.size() >= maxSessions)
+                return error("Demasiadas sesiones abiertas (" + maxSessions + ")");
+            Session session = new Session();
+            long id = nextId.getAndIncrement();
+            sessions.put(id, session);
+            SESSION_THREADS.newThread(session).start();
+            return Collections.singletonList("OK " + id);
+        }
+        if (parts.length < 2)
+            return error("Falta el número de sesión: " + commandLine);
+        Session session = sessions.get(parseNumber(parts[1]));
+        if (session == null)
+            return error("Sesión desconocida: " + parts[1]);
+        switch (command) {
+            case "LOAD":
+                return session.call(() -> {
+                    session.bot = new LightBot(body.toArray(new String[0]), LightBot.Backend.BITS, null);
+                    session.steps = 0;
+                    return ok();
+                });
+            case "RUN":
+                return session.call(() -> {
+                    RunResult result = bot(session).run(LightBot.compile(body.toArray(new String[0])), limits);
+                    return status(session, result);
+                });
+            case "PROGRAM":
+                return session.call(() -> {
+                    RunResult result = bot(session).run(LightBot.compile(body.toArray(new String[0])),
+                            limits.withMaxSteps(0));
+                    return status(session, result);
+                });
+            case "STEP": {
+                long n = parts.length > 2 ? parseNumber(parts[2]) : 1;
+                if (n < 0)
+                    return error("Número de pasos inválido: " + parts[2]);
+                return session.call(() -> {
+                    long budget = Math.min(n, limits.getMaxSteps());
+                    long max = budget > Long.MAX_VALUE - session.steps ? Long.MAX_VALUE : session.steps + budget;
+                    return status(session, bot(session).resume(limits.withMaxSteps(max)));
+                });
+            }
+            case "RESET":
+                return session.call(() -> {
+                    bot(session).reset();
+                    session.steps = 0;
+                    return ok();
+                });
+            case "MAP":
+                return session.call(() -> {
+                    LightBot bot = bot(session);
+                    List<String> lines = new ArrayList<>();
+                    int[] robot = bot.getRobotPosition();
+                    lines.add("OK " + robot[0] + " " + robot[1]);
+                    lines.addAll(bot.getMapRows());
+                    return lines;
+                });
+            case "CLOSE":
+                sessions.remove(parseNumber(parts[1]));
+                session.close();
+                return ok();
+            default:
+                return error("Orden desconocida: " + parts[0]);
+        }
+    }
+
+    private void closeIdle(long now) {
+        for (Map.Entry<Long, Session> entry : sessions.entrySet()) {
+            Session session = entry.getValue();
+            if (session.isIdle(now, idleNanos) && sessions.remove(entry.getKey(), session))
+                session.close();
+        }
+    }
+
+    private static LightBot bot(Session session) {
+        if (session.bot == null)
+            throw new IllegalStateException("La sesión no tiene ningún mapa cargado");
+        return session.bot;
+    }
+
+    private static List<String> status(Session session, RunResult result) {
+        session.steps = result.getSteps();
+        int[] robot = session.bot.getRobotPosition();
+        return Collections.singletonList("OK " + result.getStatus() + " " + result.getSteps() + " " + robot[0] + " " + robot[1]);
+    }
+
+    private static List<String> ok() { return Collections.singletonList("OK"); }
+
+    private static List<String> error(String message) {
+        return Collections.singletonList("ERROR " + message.replace('\n', ' '));
+    }
+
+    private static List<String> error(Throwable e) {
+        return error(e.getMessage() != null ? e.getMessage() : e.toString());
+    }
+
+    // Número no negativo, o -1 si el texto no lo es
+    private static long parseNumber(String text) {
+        if (text.isEmpty() || text.length() > 18 || !text.chars().allMatch(c -> c >= '0' && c <= '9'))
+            return -1;
+        return Long.parseLong(text);
+    }
+
+    // Atiende el protocolo de líneas hasta que se acaba la entrada
+    public void serve(BufferedReader in, Writer out) throws IOException, InterruptedException {
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            if (line.trim().isEmpty())
+                continue;
+            List<String> body = new ArrayList<>();
+            String command = line.trim().split("\\s+")[0].toUpperCase(Locale.ROOT);
+            if (command.equals("LOAD") || command.equals("RUN") || command.equals("PROGRAM")) {
+                for (String next = in.readLine(); next != null && !next.equals("END"); next = in.readLine())
+                    body.add(next);
+            }
+            for (String response : execute(line, body))
+                out.write(response + "\n");
+            out.write("END\n");
+            out.flush();
+        }
+    }
+
+    // Arranca el servidor HTTP solo en la interfaz local; cada petición se atiende en un hilo
+    // virtual si la JVM los tiene
+    public void startHttp(int port) throws IOException {
+        startHttp(InetAddress.getLoopbackAddress(), port);
+    }
+
+    // Escuchar en otras interfaces expone la ejecución de programas a la red: hay que pedirlo
+    public void startHttp(InetAddress host, int port) throws IOException {
+        http = HttpServer.create(new InetSocketAddress(Objects.requireNonNull(host), port), 0);
+        httpExecutor = httpExecutor();
+        http.setExecutor(httpExecutor);
+        http.createContext("/sessions", this::handle);
+        http.start();
+    }
+
+    // Puerto en el que escucha el servidor HTTP (útil si se arrancó con el puerto 0)
+    public int getHttpPort() { return http.getAddress().getPort(); }
+
+    public InetAddress getHttpAddress() { return http.getAddress().getAddress(); }
+
+    private static ExecutorService httpExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(SESSION_THREADS);
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String[] path = exchange.getRequestURI().getPath().split("/");  // "", "sessions", id, acción
+            String query = exchange.getRequestURI().getQuery();
+            String id = path.length > 2 ? path[2] : "";
+            String action = path.length > 3 ? path[3] : "";
+            String command;
+            if (path.length == 2 && method.equals("POST"))
+                command = "CREATE";
+            else if (path.length == 3 && method.equals("DELETE"))
+                command = "CLOSE " + id;
+            else if (action.equals("map"))
+                command = (method.equals("GET") ? "MAP " : "LOAD ") + id;
+            else if (action.equals("step"))
+                command = "STEP " + id + " " + (query != null && query.startsWith("n=") ? query.substring(2) : "1");
+            else if (method.equals("POST") && (action.equals("run") || action.equals("program") || action.equals("reset")))
+                command = action + " " + id;
+            else
+                command = "?";
+            List<String> body = new ArrayList<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+                for (String line = reader.readLine(); line != null; line = reader.readLine())
+                    body.add(line);
+            }
+            List<String> response = command.equals("?") ? error("Ruta desconocida: " + method + " " + exchange.getRequestURI())
+                    : execute(command, body);
+            byte[] bytes = (String.join("\n", response) + "\n").getBytes(StandardCharsets.UTF_8);
+            int code = !response.get(0).startsWith("ERROR") ? 200
+                    : response.get(0).startsWith("ERROR Sesión desconocida") || command.equals("?") ? 404 : 400;
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(code, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exchange.sendResponseHeaders(503, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Para el servidor HTTP y termina todas las sesiones
+    public void close() {
+        if (http != null) {
+            http.stop(0);
+            httpExecutor.shutdownNow();
+        }
+        for (Session session : sessions.values())
+            session.close();
+        sessions.clear();
+    }
+
+    // Sin argumentos atiende el protocolo de líneas por la entrada estándar; con --http puerto, por
+    // HTTP en la interfaz local, y con --http puerto host, en la interfaz de ese host
+    public static void main(String[] args) throws Exception {
+        SessionServer server = new SessionServer();
+        if ((args.length == 2 || args.length == 3) && args[0].equals("--http")) {
+            int port = Integer.parseInt(args[1]);
+            if (args.length == 3)
+                server.startHttp(InetAddress.getByName(args[2]), port);
+            else
+                server.startHttp(port);
+            System.err.println("Servidor de sesiones en " + server.getHttpAddress().getHostAddress()
+                    + ":" + server.getHttpPort());
+            return;
+        }
+        server.serve(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)),
+                new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,16 @@
+// Instrucción simple: FORWARD, LEFT, RIGHT, LIGHT
+class SimpleInstruction implements Instruction {
+    private final String cmd;
+    private final int line;
+    public SimpleInstruction(String cmd, int line) {
+        this.cmd = cmd;
+        this.line = line;
+    }
+    public void execute(LightBot bot) { bot.doInstruction(cmd); }
+    public void emit(BytecodeCompiler out) {
+        out.setLine(line);
+        out.emitSimple(cmd);
+    }
+    String getCommand() { return cmd; }
+    public int getLine() { return line; }
+}
@@ -0,0 +1,140 @@
+import java.util.*;
+
+// Mapa sin bordes para mundos abiertos: el robot puede ir a cualquier coordenada y todo lo
+// que queda fuera del mapa inicial es '.'. Las casillas se guardan en trozos de 64x64 en una
+// tabla hash con claves long, y solo existen los trozos con algo distinto de '.' en el mapa
+// inicial o con alguna casilla encendida, así que la memoria crece con la zona que se ilumina.
+// width() y height() son las del mapa inicial, que es lo que devuelve row().
+class SparseGrid implements Grid {
+    private static final int CHUNK_BITS = 6;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    private static final class Chunk {
+        byte[] cells;                                   // null si todas son '.'
+        final long[] lit = new long[1 << CHUNK_BITS];   // un long por fila del trozo
+    }
+
+    private final int width, height;
+    private final LongHashMap<Chunk> chunks = new LongHashMap<>();
+    private long lastKey;         // último trozo consultado, para no ir a la tabla en cada paso
+    private Chunk lastChunk;
+    private boolean hasLast;
+    private final LitLog litLog = new LitLog();
+    private long remaining;
+
+    SparseGrid(String[] lines, int width) {
+        this.width = width;
+        this.height = lines.length;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                char c = lines[y].charAt(x);
+                if (c == '.' || "RLUD".indexOf(c) > -1)
+                    continue;
+                if (c == 'O')
+                    remaining++;
+                Chunk chunk = chunk(x, y, true);
+                if (chunk.cells == null) {
+                    chunk.cells = new byte[1 << 2 * CHUNK_BITS];
+                    Arrays.fill(chunk.cells, (byte) '.');
+                }
+                chunk.cells[index(x, y)] = (byte) c;
+            }
+        }
+    }
+
+    private static long key(int x, int y) {
+        return (long) (x >> CHUNK_BITS) << 32 | (y >> CHUNK_BITS) & 0xFFFFFFFFL;
+    }
+
+    private static int index(int x, int y) { return (y & CHUNK_MASK) << CHUNK_BITS | x & CHUNK_MASK; }
+
+    private Chunk chunk(int x, int y, boolean create) {
+        long key = key(x, y);
+        if (hasLast && key == lastKey && (lastChunk != null || !create))
+            return lastChunk;
+        Chunk chunk = chunks.get(key);
+        if (chunk == null && create) {
+            chunk = new Chunk();
+            chunks.put(key, chunk);
+        }
+        lastKey = key;
+        lastChunk = chunk;
+        hasLast = true;
+        return chunk;
+    }
+
+    private char initial(Chunk chunk, int x, int y) {
+        return chunk == null || chunk.cells == null ? '.' : (char) chunk.cells[index(x, y)];
+    }
+
+    private static boolean isLit(Chunk chunk, int x, int y) {
+        return chunk != null && (chunk.lit[y & CHUNK_MASK] & 1L << (x & CHUNK_MASK)) != 0;
+    }
+
+    // Número de trozos guardados
+    int chunkCount() { return chunks.size(); }
+
+    public int width() { return width; }
+    public int height() { return height; }
+    public boolean wraps() { return false; }
+
+    public boolean isWalkable(int x, int y) {
+        char c = initial(chunk(x, y, false), x, y);
+        return c == '.' || c == 'O' || c == 'X' || c == 'x';
+    }
+
+    public boolean light(int x, int y) {
+        Chunk chunk = chunk(x, y, false);
+        char c = initial(chunk, x, y);
+        if (c != '.' && c != 'O' || isLit(chunk, x, y))
+            return false;
+        if (chunk == null)
+            chunk = chunk(x, y, true);
+        chunk.lit[y & CHUNK_MASK] |= 1L << (x & CHUNK_MASK);
+        if (c == 'O')
+            remaining--;
+        litLog.add((long) x << 32 | y & 0xFFFFFFFFL);
+        return true;
+    }
+
+    public char cell(int x, int y) {
+        Chunk chunk = chunk(x, y, false);
+        char c = initial(chunk, x, y);
+        if (isLit(chunk, x, y))
+            return c == 'O' ? 'X' : 'x';
+        return c;
+    }
+
+    public void reset() { restoreLit(null); }
+
+    public String row(int y) {
+        char[] chars = new char[width];
+        for (int x = 0; x < width; x++)
+            chars[x] = cell(x, y);
+        return new String(chars);
+    }
+
+    public LitNode litHead() { return litLog.head(); }
+
+    public void restoreLit(LitNode head) { litLog.restore(head, this); }
+
+    public int litMark() { return litLog.mark(); }
+
+    public void undoLit(int mark) { litLog.undo(mark, this); }
+
+    // Aquí la casilla es x << 32 | y, porque las coordenadas pueden ser negativas
+    public void setLit(long cell, boolean on) {
+        int x = (int) (cell >> 32), y = (int) cell;
+        Chunk chunk = chunk(x, y, true);
+        if (isLit(chunk, x, y) == on)
+            return;
+        if (initial(chunk, x, y) == 'O')
+            remaining += on ? -1 : 1;
+        if (on)
+            chunk.lit[y & CHUNK_MASK] |= 1L << (x & CHUNK_MASK);
+        else
+            chunk.lit[y & CHUNK_MASK] &= ~(1L << (x & CHUNK_MASK));
+    }
+
+    public long remainingTargets() { return remaining; }
+}
@@ -0,0 +1,96 @@
+import java.util.*;
+
+// Caché de resúmenes de un LightBot con un número fijo de entradas: cada llamada va a una sola
+// posición según su función, dirección y argumentos, y una llamada distinta la sustituye, así que
+// la memoria no crece. Un resumen se calcula la segunda vez que se ve la misma llamada seguida en
+// su posición, para no pagarlo en las llamadas que solo se hacen una vez. Los resúmenes no
+// dependen del mapa, pero sí del bytecode: al cambiar de bytecode se vacía.
+// Los argumentos se guardan en un solo array, con tantos huecos por entrada como parámetros tiene
+// la función que más tiene. Cada CALL lleva la cuenta de sus fallos seguidos: uno que nunca acierta
+// (una llamada recursiva con argumentos distintos o una función que no se puede resumir) deja de
+// buscar durante un número de llamadas que se dobla cada vez que vuelve a fallar.
+final class SummaryCache {
+    private static final int SIZE = 256;
+    private static final byte EMPTY = 0, SEEN = 1, DONE = 2;
+    private static final int SITES = 256;       // contadores por CALL, según su pc
+    private static final int COLD_MISSES = 16;  // fallos seguidos tras los que el CALL deja de buscar
+    private static final int MIN_PAUSE = 64, MAX_PAUSE = 1 << 16;
+
+    private Bytecode bytecode;
+    private final byte[] state = new byte[SIZE];
+    private final int[] slots = new int[SIZE];
+    private final int[] dirs = new int[SIZE];
+    private int stride;                         // parámetros de la función que más tiene
+    private int[] args = new int[0];            // argumentos de la entrada e en [e * stride, e * stride + stride)
+    private final FunctionSummary[] summaries = new FunctionSummary[SIZE];  // null en DONE si no se puede resumir
+    private final int[] misses = new int[SITES];
+    private final int[] pause = new int[SITES];
+    private final int[] skip = new int[SITES];  // llamadas que quedan sin buscar
+    long applied;  // llamadas que se han sustituido por su resumen
+    long probes;   // llamadas que se han buscado en la caché
+
+    // Resumen de la llamada de la posición site a la función slot con sus nparams primeros
+    // argumentos, o null si aún no se tiene, no se puede resumir o la llamada no está buscando
+    FunctionSummary get(Bytecode bc, int site, int slot, int dir, int[] values, int base, int nparams) {
+        if (bc != bytecode)
+            clear(bc);
+        int s = site & (SITES - 1);
+        if (skip[s] > 0) {
+            skip[s]--;
+            return null;
+        }
+        FunctionSummary summary = probe(bc, slot, dir, values, base, nparams);
+        if (summary != null) {
+            misses[s] = 0;
+            pause[s] = 0;
+        } else if (++misses[s] >= COLD_MISSES) {
+            pause[s] = pause[s] == 0 ? MIN_PAUSE : Math.min(pause[s] * 2, MAX_PAUSE);
+            skip[s] = pause[s];
+            misses[s] = COLD_MISSES - 1;  // Después de la pausa, un fallo más la alarga
+        }
+        return summary;
+    }
+
+    private FunctionSummary probe(Bytecode bc, int slot, int dir, int[] values, int base, int nparams) {
+        probes++;
+        int h = slot * 31 + dir;
+        for (int i = 0; i < nparams; i++)
+            h = h * 0x9E3779B1 + values[base + i];
+        int e = (h ^ h >>> 16) & (SIZE - 1);
+        int k = e * stride;
+        if (state[e] != EMPTY && slots[e] == slot && dirs[e] == dir && sameArgs(k, values, base, nparams)) {
+            if (state[e] == SEEN) {
+                summaries[e] = FunctionSummary.compute(bc, slot, values, base, nparams, dir);
+                state[e] = DONE;
+            }
+            return summaries[e];
+        }
+        state[e] = SEEN;
+        slots[e] = slot;
+        dirs[e] = dir;
+        System.arraycopy(values, base, args, k, nparams);
+        summaries[e] = null;
+        return null;
+    }
+
+    private boolean sameArgs(int k, int[] values, int base, int nparams) {
+        for (int i = 0; i < nparams; i++)
+            if (args[k + i] != values[base + i])
+                return false;
+        return true;
+    }
+
+    private void clear(Bytecode bc) {
+        Arrays.fill(state, EMPTY);
+        Arrays.fill(summaries, null);
+        Arrays.fill(misses, 0);
+        Arrays.fill(pause, 0);
+        Arrays.fill(skip, 0);
+        stride = 0;
+        for (int[] params : bc.funcParams)
+            stride = Math.max(stride, params.length);
+        if (args.length < SIZE * stride)
+            args = new int[SIZE * stride];
+        bytecode = bc;
+    }
+}
@@ -0,0 +1,26 @@
+import java.util.*;
+
+// Tabla de nombres de un programa: cada nombre distinto recibe un entero
+class Symbols {
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    int intern(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            ids.put(name, id);
+            names.add(name);
+        }
+        return id;
+    }
+
+    int[] internAll(List<String> names) {
+        int[] result = new int[names.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = intern(names.get(i));
+        return result;
+    }
+
+    String[] toArray() { return names.toArray(new String[0]); }
+}
@@ -0,0 +1,92 @@
+import java.nio.ByteBuffer;
+import java.util.*;
+
+// Graba los eventos que le pasa LightBot en un buffer directo (fuera del heap) que crece al llenarse
+final class TraceRecorder {
+    static final int FORWARD_BLOCKED = 0;
+    static final int FORWARD = 1;
+    static final int LEFT = 2;
+    static final int RIGHT = 3;
+    static final int LIGHT_NOOP = 4;     // LIGHT sobre una casilla ya encendida o no encendible
+    static final int LIGHT = 5;
+    static final int OTHER = 6;          // llamada o vuelta de REPEAT: cuenta como paso y no cambia nada
+    static final int MAX_RUN = 32;
+    static final int KEYFRAME_INTERVAL = 4096;
+    // Fotograma clave: posición en data, x, y, dirección y número de casillas encendidas
+    static final int KEYFRAME_SIZE = 5;
+
+    private final String[] initialMap;
+    private final int width;
+    private ByteBuffer data = ByteBuffer.allocateDirect(4096);
+    private int lastEvent = -1, runLength;
+    private long steps, nextKeyframe = KEYFRAME_INTERVAL;
+    private int keyframeCount;
+    private long[] keyframeSteps = new long[16];
+    private int[] keyframes = new int[16 * KEYFRAME_SIZE];
+    private int[] litCells = new int[16];
+    private int litCount;
+
+    TraceRecorder(String[] initialMap, int x, int y, int dir) {
+        this.initialMap = initialMap;
+        this.width = initialMap[0].length();
+        addKeyframe(x, y, dir);
+    }
+
+    // Evento ya aplicado; x, y y dir son el estado del robot después del paso
+    void record(int event, int x, int y, int dir) {
+        if (event == lastEvent && runLength < MAX_RUN) {
+            runLength++;
+        } else {
+            flush();
+            lastEvent = event;
+            runLength = 1;
+        }
+        if (event == LIGHT) {
+            if (litCount == litCells.length)
+                litCells = Arrays.copyOf(litCells, litCount * 2);
+            litCells[litCount++] = y * width + x;
+        }
+        if (++steps >= nextKeyframe) {
+            flush();
+            addKeyframe(x, y, dir);
+            nextKeyframe = steps + KEYFRAME_INTERVAL;
+        }
+    }
+
+    ExecutionTrace finish() {
+        flush();
+        ByteBuffer result = data.duplicate();
+        result.flip();
+        return new ExecutionTrace(initialMap, result.asReadOnlyBuffer(), steps, keyframeCount,
+                keyframeSteps, keyframes, Arrays.copyOf(litCells, litCount));
+    }
+
+    private void flush() {
+        if (runLength == 0)
+            return;
+        if (!data.hasRemaining()) {
+            ByteBuffer bigger = ByteBuffer.allocateDirect(data.capacity() * 2);
+            data.flip();
+            bigger.put(data);
+            data = bigger;
+        }
+        data.put((byte) ((runLength - 1) << 3 | lastEvent));
+        lastEvent = -1;
+        runLength = 0;
+    }
+
+    private void addKeyframe(int x, int y, int dir) {
+        if (keyframeCount == keyframeSteps.length) {
+            keyframeSteps = Arrays.copyOf(keyframeSteps, keyframeCount * 2);
+            keyframes = Arrays.copyOf(keyframes, keyframeCount * 2 * KEYFRAME_SIZE);
+        }
+        keyframeSteps[keyframeCount] = steps;
+        int k = keyframeCount * KEYFRAME_SIZE;
+        keyframes[k] = data.position();
+        keyframes[k + 1] = x;
+        keyframes[k + 2] = y;
+        keyframes[k + 3] = dir;
+        keyframes[k + 4] = litCount;
+        keyframeCount++;
+    }
+}
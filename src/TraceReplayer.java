@@ -0,0 +1,65 @@
+import java.nio.ByteBuffer;
+
+// Reconstruye el estado de una ejecución grabada en cualquier paso. Para saltar a un paso
+// parte del fotograma clave anterior (o del paso actual si está más cerca) y reproduce los
+// eventos que faltan, como mucho TraceRecorder.KEYFRAME_INTERVAL. Las casillas encendidas solo
+// crecen y se encienden en el orden de trace.litCells(), así que llegar al fotograma clave solo
+// cuesta las casillas encendidas entre el paso actual y el fotograma: las que faltan se encienden
+// y las que sobran se apagan desde la última.
+public final class TraceReplayer {
+    private final ExecutionTrace trace;
+    private final ByteBuffer data;
+    private final LightBot bot;
+    private long step;
+    private int pending;      // repeticiones del byte actual que aún no se han aplicado
+    private int pendingEvent;
+
+    public TraceReplayer(ExecutionTrace trace) {
+        this.trace = trace;
+        this.data = trace.data().duplicate();
+        int[] kf = trace.keyframes();
+        bot = new LightBot(trace.initialMap(), kf[1], kf[2], kf[3]);
+        data.position(0);
+    }
+
+    public long getStep() { return step; }
+
+    // Estado en el paso indicado (0 es el estado al empezar la grabación). El LightBot devuelto
+    // pertenece al reproductor y cambia en la siguiente llamada a seek; no se debe modificar.
+    public LightBot seek(long target) {
+        if (target < 0 || target > trace.getSteps())
+            throw new IllegalArgumentException("Paso fuera de la traza: " + target);
+        int k = trace.keyframeAt(target);
+        if (target < step || trace.keyframeStep(k) > step)
+            jumpTo(k);
+        while (step < target) {
+            if (pending == 0) {
+                int b = data.get() & 0xFF;
+                pendingEvent = b & 7;
+                pending = (b >>> 3) + 1;
+            }
+            int n = (int) Math.min(pending, target - step);
+            for (int i = 0; i < n; i++)
+                bot.replayEvent(pendingEvent);
+            pending -= n;
+            step += n;
+        }
+        return bot;
+    }
+
+    private void jumpTo(int k) {
+        int[] kf = trace.keyframes();
+        int base = k * TraceRecorder.KEYFRAME_SIZE;
+        int width = trace.initialMap()[0].length();
+        bot.moveRobot(kf[base + 1], kf[base + 2], kf[base + 3]);
+        int[] lit = trace.litCells();
+        int count = kf[base + 4];
+        if (bot.litCount() > count)
+            bot.unlightTo(count);
+        for (int i = bot.litCount(); i < count; i++)
+            bot.lightCell(lit[i] % width, lit[i] / width);
+        data.position(kf[base]);
+        step = trace.keyframeStep(k);
+        pending = 0;
+    }
+}
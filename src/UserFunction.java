@@ -0,0 +1,19 @@
+import java.util.*;
+
+// Representa una función (con o sin parámetros)
+class UserFunction {
+    private final String name;
+    private final List<String> paramNames; // Nombres de los parámetros
+    private final int[] paramSymbols;      // Los mismos nombres como símbolos del programa
+    private final List<Instruction> instructions;
+    public UserFunction(String name, List<String> paramNames, int[] paramSymbols, List<Instruction> instructions) {
+        this.name = name;
+        this.paramNames = paramNames;
+        this.paramSymbols = paramSymbols;
+        this.instructions = instructions;
+    }
+    public String getName() { return name; }
+    public List<String> getParamNames() { return paramNames; }
+    int[] getParamSymbols() { return paramSymbols; }
+    public List<Instruction> getInstructions() { return instructions; }
+}
@@ -0,0 +1,34 @@
+// Llamada a función con parametros. La función se enlaza al terminar de analizar el programa
+// (ver ProgramParser); si no existe, target es null y la llamada no hace nada.
+class UserFunctionCall implements Instruction {
+    private final String funcName;
+    private final Expr[] argExprs;
+    private final int line;
+    private UserFunction target;
+    public UserFunctionCall(String funcName, Expr[] argExprs, int line) {
+        this.funcName = funcName;
+        this.argExprs = argExprs;
+        this.line = line;
+    }
+
+    void bind(UserFunction target) { this.target = target; }
+    UserFunction getTarget() { return target; }
+    Expr[] getArgExprs() { return argExprs; }
+
+    public void execute(LightBot bot) {
+        UserFunction func = target;
+        if (func == null) return;
+        bot.countControlStep();
+        bot.pushFrame(func, argExprs);
+        for (Instruction instr : func.getInstructions())
+            instr.execute(bot);
+        bot.popFrame();
+    }
+
+    public void emit(BytecodeCompiler out) {
+        out.setLine(line);
+        out.emitCall(funcName, argExprs);
+    }
+
+    public int getLine() { return line; }
+}